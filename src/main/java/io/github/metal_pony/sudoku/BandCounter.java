@@ -0,0 +1,298 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.ALL;
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.ENCODER;
+import static io.github.metal_pony.sudoku.Sudoku.RANK;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Counts solutions band by band, rather than one solution at a time.
+ *
+ * The lower bands only see the top band through the set of digits it puts in each column.
+ * So the top band's completions are enumerated and grouped by those column sets, and the
+ * lower bands are counted once per group. The same is done for the middle band, whose groups
+ * leave exactly three digits for each column of the bottom band; bottom band counts are cached
+ * across the whole count. The total is the sum of each group's size times its lower count.
+ *
+ * Bands may be taken in any order, and stacks may be used in place of bands; the board is
+ * oriented so the band with the most givens comes first, as it has the fewest completions.
+ */
+final class BandCounter {
+    private static final int BANDS = RANK;
+    private static final int BAND_CELLS = RANK * DIGITS;
+
+    /** Bits per column in a packed key; enough to index any 3-digit or 6-digit column set. */
+    private static final int KEY_BITS = 7;
+    private static final int KEY_MASK = (1 << KEY_BITS) - 1;
+    /** Index of each column set among the sets with the same number of digits. */
+    private static final int[] SET_INDEX = new int[1 << DIGITS];
+    /** Column sets by number of digits, then index. */
+    private static final int[][] SETS = new int[DIGITS + 1][];
+    static {
+        int[] next = new int[DIGITS + 1];
+        for (int set = 0; set <= ALL; set++) {
+            SET_INDEX[set] = next[Integer.bitCount(set)]++;
+        }
+        for (int n = 0; n <= DIGITS; n++) {
+            SETS[n] = new int[next[n]];
+        }
+        for (int set = 0; set <= ALL; set++) {
+            SETS[Integer.bitCount(set)][SET_INDEX[set]] = set;
+        }
+    }
+
+    /** Board being counted, reoriented so the bands are in order of most givens. */
+    private final int[] digits;
+    /** Digits given in each column by the bands below the given band. */
+    private final int[][] givenBelow = new int[BANDS][DIGITS];
+    /** Bottom band counts by packed column sets used by the bands above it. */
+    private final Map<Long,Long> bottomCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param board 81-length board; 0 for empty cells. Must not have conflicting givens.
+     */
+    BandCounter(int[] board) {
+        this.digits = orient(board);
+        for (int band = BANDS - 2; band >= 0; band--) {
+            for (int col = 0; col < DIGITS; col++) {
+                givenBelow[band][col] = givenBelow[band + 1][col];
+                for (int row = 0; row < RANK; row++) {
+                    int digit = digits[Sudoku.BAND_ROW_INDICES[band + 1][row][col]];
+                    if (digit > 0) givenBelow[band][col] |= ENCODER[digit];
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the board's solutions.
+     * @param numThreads Number of threads used to count the lower bands of each top band group.
+     * @return Number of solutions.
+     */
+    BigInteger count(int numThreads) {
+        Map<Long,Long> topGroups = new Bands().group(0, new int[DIGITS]);
+        List<Map.Entry<Long,Long>> groups = new ArrayList<>(topGroups.entrySet());
+
+        if (numThreads == 1) {
+            BigInteger total = BigInteger.ZERO;
+            Bands bands = new Bands();
+            for (Map.Entry<Long,Long> group : groups) {
+                total = total.add(weighted(group.getValue(), bands.countLower(group.getKey())));
+            }
+            return total;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            return pool.submit(() -> groups.parallelStream()
+                .map(group -> weighted(group.getValue(), new Bands().countLower(group.getKey())))
+                .reduce(BigInteger.ZERO, BigInteger::add)
+            ).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("band count interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("band count failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static BigInteger weighted(long groupSize, long lowerCount) {
+        return BigInteger.valueOf(groupSize).multiply(BigInteger.valueOf(lowerCount));
+    }
+
+    /**
+     * Transposes the board if a stack has more givens than any band, then orders the bands
+     * by number of givens, most first. Neither changes the number of solutions.
+     */
+    private static int[] orient(int[] board) {
+        int[] bandGivens = new int[BANDS];
+        int[] stackGivens = new int[BANDS];
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (board[ci] > 0) {
+                bandGivens[Sudoku.CELL_ROWS[ci] / RANK]++;
+                stackGivens[Sudoku.CELL_COLS[ci] / RANK]++;
+            }
+        }
+
+        int[] source = board;
+        int[] givens = bandGivens;
+        if (max(stackGivens) > max(bandGivens)) {
+            source = new int[SPACES];
+            for (int ci = 0; ci < SPACES; ci++) {
+                source[Sudoku.CELL_COLS[ci] * DIGITS + Sudoku.CELL_ROWS[ci]] = board[ci];
+            }
+            givens = stackGivens;
+        }
+
+        Integer[] order = { 0, 1, 2 };
+        final int[] g = givens;
+        Arrays.sort(order, (a, b) -> Integer.compare(g[b], g[a]));
+
+        int[] result = new int[SPACES];
+        for (int band = 0; band < BANDS; band++) {
+            int[] to = Sudoku.BAND_INDICES[band];
+            int[] from = Sudoku.BAND_INDICES[order[band]];
+            for (int i = 0; i < BAND_CELLS; i++) {
+                result[to[i]] = source[from[i]];
+            }
+        }
+        return result;
+    }
+
+    private static int max(int[] arr) {
+        int max = arr[0];
+        for (int v : arr) max = Math.max(max, v);
+        return max;
+    }
+
+    private static long pack(int[] colSets) {
+        long key = 0L;
+        for (int col = 0; col < DIGITS; col++) {
+            key |= (long) SET_INDEX[colSets[col]] << (col * KEY_BITS);
+        }
+        return key;
+    }
+
+    private static void unpack(long key, int setSize, int[] colSets) {
+        for (int col = 0; col < DIGITS; col++) {
+            colSets[col] = SETS[setSize][(int) (key >>> (col * KEY_BITS)) & KEY_MASK];
+        }
+    }
+
+    /** Enumeration state for one thread. */
+    private final class Bands {
+        private final int[] rowUsed = new int[RANK];
+        private final int[] regionUsed = new int[RANK];
+        private final int[] colUsed = new int[DIGITS];
+        private final int[] colAllowed = new int[DIGITS];
+        private Map<Long,Long> groups;
+        private int band;
+
+        /**
+         * Completes the given band, grouping completions by the digits placed in each column.
+         * @param band Band to complete.
+         * @param colTaken Digits already placed in each column by the bands above.
+         * @return Number of completions, by packed column sets of the band.
+         */
+        Map<Long,Long> group(int band, int[] colTaken) {
+            start(band, colTaken);
+            groups = new HashMap<>();
+            search(0, false);
+            return groups;
+        }
+
+        /**
+         * Counts completions of the middle and bottom bands, given the column sets of the top band.
+         */
+        long countLower(long topKey) {
+            int[] topSets = new int[DIGITS];
+            unpack(topKey, RANK, topSets);
+            int[] colTaken = new int[DIGITS];
+
+            long count = 0L;
+            for (Map.Entry<Long,Long> group : group(1, topSets).entrySet()) {
+                unpack(group.getKey(), RANK, colTaken);
+                for (int col = 0; col < DIGITS; col++) colTaken[col] |= topSets[col];
+                count = Math.addExact(count, Math.multiplyExact(group.getValue(), countBottom(colTaken)));
+            }
+            return count;
+        }
+
+        private long countBottom(int[] colTaken) {
+            long key = pack(colTaken);
+            Long cached = bottomCounts.get(key);
+            if (cached != null) return cached;
+
+            start(2, colTaken);
+            long count = search(0, true);
+            bottomCounts.put(key, count);
+            return count;
+        }
+
+        private void start(int band, int[] colTaken) {
+            this.band = band;
+            for (int i = 0; i < RANK; i++) {
+                rowUsed[i] = 0;
+                regionUsed[i] = 0;
+            }
+            for (int col = 0; col < DIGITS; col++) {
+                colUsed[col] = 0;
+                // Digits given further down a column can't be placed in it here.
+                colAllowed[col] = ALL & ~(colTaken[col] | givenBelow[band][col]);
+            }
+        }
+
+        /**
+         * Fills the band's cells in order from <code>pos</code>.
+         * @param countOnly If true, completions are only counted; otherwise they are also grouped.
+         * Only used for the bottom band, where each column has exactly three digits left, so the
+         * last row is filled in along with the one above it.
+         * @return Number of completions.
+         */
+        private long search(int pos, boolean countOnly) {
+            if (countOnly && pos == BAND_CELLS - DIGITS) return 1L;
+            if (pos == BAND_CELLS) {
+                if (!countOnly) groups.merge(pack(colUsed), 1L, Long::sum);
+                return 1L;
+            }
+
+            int row = pos / DIGITS;
+            int col = pos % DIGITS;
+            int region = col / RANK;
+            int values = colAllowed[col] & ~(colUsed[col] | rowUsed[row] | regionUsed[region]);
+            int given = digits[Sudoku.BAND_ROW_INDICES[band][row][col]];
+            if (given > 0) values &= ENCODER[given];
+
+            long count = 0L;
+            while (values > 0) {
+                int bit = values & -values;
+                values ^= bit;
+                if (countOnly && row == RANK - 2) {
+                    count += searchLastTwo(pos, row, col, region, bit);
+                    continue;
+                }
+                colUsed[col] |= bit;
+                rowUsed[row] |= bit;
+                regionUsed[region] |= bit;
+                count += search(pos + 1, countOnly);
+                colUsed[col] ^= bit;
+                rowUsed[row] ^= bit;
+                regionUsed[region] ^= bit;
+            }
+            return count;
+        }
+
+        /** Places <code>bit</code> at (row, col), along with the one digit left for the cell below it. */
+        private long searchLastTwo(int pos, int row, int col, int region, int bit) {
+            int last = colAllowed[col] & ~(colUsed[col] | bit);
+            if (((rowUsed[row + 1] | regionUsed[region] | bit) & last) != 0) return 0L;
+            int given = digits[Sudoku.BAND_ROW_INDICES[band][row + 1][col]];
+            if (given > 0 && last != ENCODER[given]) return 0L;
+
+            int both = bit | last;
+            colUsed[col] |= both;
+            rowUsed[row] |= bit;
+            rowUsed[row + 1] |= last;
+            regionUsed[region] |= both;
+            long count = search(pos + 1, true);
+            colUsed[col] ^= both;
+            rowUsed[row] ^= bit;
+            rowUsed[row + 1] ^= last;
+            regionUsed[region] ^= both;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+/**
+ * Solver engine that tracks candidates as one 81-bit board per digit.
+ *
+ * Each board is stored in two longs, laid out the same way as <code>SudokuMask.bits</code>:
+ * cells 17 through 80 live in word 0 (bit <code>80 - ci</code>), and cells 0 through 16
+ * live in word 1 (bit <code>16 - ci</code>). Placing a digit clears the cell from every
+ * other digit board, and clears the cell's row, column, and region from the digit's board
+ * with a pair of word-level ANDs.
+ *
+ * The search state of one node is a frame of 20 longs: 9 digit boards followed by a board
+ * of unsolved cells. Branching copies a single frame, rather than the whole Sudoku.
+ *
+ * Instances are not thread-safe. Use <code>BitboardSolver.local()</code> for a reusable
+ * per-thread instance.
+ */
+final class BitboardSolver {
+    /** Number of longs in a single search frame. */
+    static final int FRAME = 2 * DIGITS + 2;
+    /** Offset of the unsolved cells board within a frame. */
+    static final int UNSOLVED = 2 * DIGITS;
+
+    static final int[] CELL_WORD = new int[SPACES];
+    static final long[] CELL_BIT = new long[SPACES];
+    static final long[] PEERS0 = new long[SPACES];
+    static final long[] PEERS1 = new long[SPACES];
+    static final long[] UNITS0 = new long[3 * DIGITS];
+    static final long[] UNITS1 = new long[3 * DIGITS];
+    static {
+        for (int ci = 0; ci < SPACES; ci++) {
+            CELL_WORD[ci] = (ci > SPACES - 1 - 64) ? 0 : 1;
+            CELL_BIT[ci] = 1L << ((SPACES - 1 - ci) % 64);
+        }
+        for (int ci = 0; ci < SPACES; ci++) {
+            for (int ni : Sudoku.CELL_NEIGHBORS[ci]) {
+                if (CELL_WORD[ni] == 0) PEERS0[ci] |= CELL_BIT[ni];
+                else PEERS1[ci] |= CELL_BIT[ni];
+            }
+        }
+        for (int i = 0; i < DIGITS; i++) {
+            for (int ci : Sudoku.ROW_INDICES[i]) addToUnit(i, ci);
+            for (int ci : Sudoku.COL_INDICES[i]) addToUnit(DIGITS + i, ci);
+            for (int ci : Sudoku.REGION_INDICES[i]) addToUnit(2 * DIGITS + i, ci);
+        }
+    }
+
+    private static void addToUnit(int unit, int ci) {
+        if (CELL_WORD[ci] == 0) UNITS0[unit] |= CELL_BIT[ci];
+        else UNITS1[unit] |= CELL_BIT[ci];
+    }
+
+    /** Cell index for a set bit position in word 0. */
+    static int cell0(int bitPos) { return SPACES - 1 - bitPos; }
+    /** Cell index for a set bit position in word 1. */
+    static int cell1(int bitPos) { return SPACES - 1 - 64 - bitPos; }
+
+    private static final ThreadLocal<BitboardSolver> LOCAL = ThreadLocal.withInitial(BitboardSolver::new);
+
+    /**
+     * @return A solver instance reserved for the calling thread.
+     */
+    static BitboardSolver local() {
+        return LOCAL.get();
+    }
+
+    /** Offset of a frame that persists across searches; see <code>hasAlternative</code>. */
+    private static final int KEPT = (SPACES + 1) * FRAME;
+
+    /** Frames for the root (index 0) and each search depth, followed by the kept frame. */
+    private final long[] s = new long[(SPACES + 2) * FRAME];
+    /** Branching cell per search depth. */
+    private final int[] branchCell = new int[SPACES + 1];
+    /** Untried digits (encoded) per search depth. */
+    private final int[] branchDigits = new int[SPACES + 1];
+
+    /**
+     * Loads the given board into the root frame and propagates singles.
+     * @param digits 81-length board; 0 for empty cells.
+     * @return False if the givens conflict, or propagation finds a contradiction.
+     */
+    boolean load(int[] digits) {
+        for (int i = 0; i < 2 * DIGITS; i += 2) {
+            s[i] = -1L;
+            s[i + 1] = 0x1FFFFL;
+        }
+        s[UNSOLVED] = -1L;
+        s[UNSOLVED + 1] = 0x1FFFFL;
+
+        for (int ci = 0; ci < SPACES; ci++) {
+            int digit = digits[ci];
+            if (digit > 0 && !place(0, digit - 1, ci)) {
+                return false;
+            }
+        }
+        return propagate(0);
+    }
+
+    /**
+     * Places digit index <code>d</code> (0-8) at cell <code>ci</code> in the frame at offset <code>f</code>.
+     * @return False if the digit was no longer a candidate for the cell.
+     */
+    private boolean place(int f, int d, int ci) {
+        int w = CELL_WORD[ci];
+        long b = CELL_BIT[ci];
+        if ((s[f + 2*d + w] & b) == 0L) return false;
+        for (int i = f + w; i < f + UNSOLVED; i += 2) s[i] &= ~b;
+        s[f + 2*d] &= ~PEERS0[ci];
+        s[f + 2*d + 1] &= ~PEERS1[ci];
+        s[f + 2*d + w] |= b;
+        s[f + UNSOLVED + w] &= ~b;
+        return true;
+    }
+
+    /**
+     * Places the only candidate of a cell known to have a single candidate.
+     * @return False if the cell has no candidates left.
+     */
+    private boolean placeSingle(int f, int ci) {
+        int w = CELL_WORD[ci];
+        long b = CELL_BIT[ci];
+        for (int d = 0; d < DIGITS; d++) {
+            if ((s[f + 2*d + w] & b) != 0L) {
+                return place(f, d, ci);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies naked and hidden singles until nothing changes.
+     * @return False if a contradiction is found.
+     */
+    private boolean propagate(int f) {
+        while (true) {
+            long u0 = s[f + UNSOLVED];
+            long u1 = s[f + UNSOLVED + 1];
+            if ((u0 | u1) == 0L) return true;
+
+            // Bit-sliced counts: a = at least one candidate, b = at least two.
+            long a0 = 0L, a1 = 0L, b0 = 0L, b1 = 0L;
+            for (int i = f; i < f + UNSOLVED; i += 2) {
+                long x0 = s[i], x1 = s[i + 1];
+                b0 |= a0 & x0;
+                b1 |= a1 & x1;
+                a0 |= x0;
+                a1 |= x1;
+            }
+            if ((u0 & ~a0) != 0L || (u1 & ~a1) != 0L) return false;
+
+            // Naked singles
+            long singles0 = u0 & ~b0;
+            long singles1 = u1 & ~b1;
+            if ((singles0 | singles1) != 0L) {
+                while (singles0 != 0L) {
+                    if (!placeSingle(f, cell0(Long.numberOfTrailingZeros(singles0)))) return false;
+                    singles0 &= singles0 - 1L;
+                }
+                while (singles1 != 0L) {
+                    if (!placeSingle(f, cell1(Long.numberOfTrailingZeros(singles1)))) return false;
+                    singles1 &= singles1 - 1L;
+                }
+                continue;
+            }
+
+            // Hidden singles
+            boolean placed = false;
+            for (int d = 0; d < DIGITS; d++) {
+                int i = f + 2*d;
+                for (int u = 0; u < 3 * DIGITS; u++) {
+                    long y0 = s[i] & UNITS0[u];
+                    long y1 = s[i + 1] & UNITS1[u];
+                    int n = Long.bitCount(y0) + Long.bitCount(y1);
+                    if (n == 0) return false;
+                    if (n == 1 && ((y0 & s[f + UNSOLVED]) | (y1 & s[f + UNSOLVED + 1])) != 0L) {
+                        int ci = (y0 != 0L) ?
+                            cell0(Long.numberOfTrailingZeros(y0)) :
+                            cell1(Long.numberOfTrailingZeros(y1));
+                        if (!place(f, d, ci)) return false;
+                        placed = true;
+                    }
+                }
+            }
+            if (!placed) return true;
+        }
+    }
+
+    private boolean isSolved(int f) {
+        return (s[f + UNSOLVED] | s[f + UNSOLVED + 1]) == 0L;
+    }
+
+    /**
+     * @return The encoded candidates for the given cell in the frame at offset <code>f</code>.
+     */
+    private int candidates(int f, int ci) {
+        int w = CELL_WORD[ci];
+        long b = CELL_BIT[ci];
+        int result = 0;
+        for (int d = 0; d < DIGITS; d++) {
+            if ((s[f + 2*d + w] & b) != 0L) result |= 1 << d;
+        }
+        return result;
+    }
+
+    /**
+     * Picks an unsolved cell with the fewest candidates.
+     * Cells with exactly two candidates are found without counting per cell.
+     */
+    private int pickCell(int f) {
+        long u0 = s[f + UNSOLVED];
+        long u1 = s[f + UNSOLVED + 1];
+        long a0 = 0L, a1 = 0L, b0 = 0L, b1 = 0L, c0 = 0L, c1 = 0L;
+        for (int i = f; i < f + UNSOLVED; i += 2) {
+            long x0 = s[i], x1 = s[i + 1];
+            c0 |= b0 & x0;
+            c1 |= b1 & x1;
+            b0 |= a0 & x0;
+            b1 |= a1 & x1;
+            a0 |= x0;
+            a1 |= x1;
+        }
+        long pairs0 = u0 & b0 & ~c0;
+        if (pairs0 != 0L) return cell0(Long.numberOfTrailingZeros(pairs0));
+        long pairs1 = u1 & b1 & ~c1;
+        if (pairs1 != 0L) return cell1(Long.numberOfTrailingZeros(pairs1));
+
+        int best = -1;
+        int min = DIGITS + 1;
+        for (int ci = 0; ci < SPACES; ci++) {
+            if ((s[f + UNSOLVED + CELL_WORD[ci]] & CELL_BIT[ci]) == 0L) continue;
+            int n = Integer.bitCount(candidates(f, ci));
+            if (n < min) {
+                min = n;
+                best = ci;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the solved board in the frame at offset <code>f</code> to the given array.
+     */
+    private void extract(int f, int[] out) {
+        for (int d = 0; d < DIGITS; d++) {
+            long x0 = s[f + 2*d];
+            long x1 = s[f + 2*d + 1];
+            while (x0 != 0L) {
+                out[cell0(Long.numberOfTrailingZeros(x0))] = d + 1;
+                x0 &= x0 - 1L;
+            }
+            while (x1 != 0L) {
+                out[cell1(Long.numberOfTrailingZeros(x1))] = d + 1;
+                x1 &= x1 - 1L;
+            }
+        }
+    }
+
+    /**
+     * Counts solutions of the loaded board, stopping once <code>limit</code> are found.
+     * Must be preceded by a successful call to <code>load</code>.
+     * @param limit Maximum number of solutions to count.
+     * @param firstSolution (Optional) Receives the first solution found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    long search(long limit, int[] firstSolution) {
+        if (isSolved(0)) {
+            if (firstSolution != null) extract(0, firstSolution);
+            return 1L;
+        }
+
+        long count = 0L;
+        int depth = 0;
+        branchCell[0] = pickCell(0);
+        branchDigits[0] = candidates(0, branchCell[0]);
+
+        while (depth >= 0) {
+            int remaining = branchDigits[depth];
+            if (remaining == 0) {
+                depth--;
+                continue;
+            }
+            int d = Integer.numberOfTrailingZeros(remaining);
+            branchDigits[depth] = remaining & (remaining - 1);
+
+            int f = depth * FRAME;
+            int next = f + FRAME;
+            System.arraycopy(s, f, s, next, FRAME);
+            if (!place(next, d, branchCell[depth]) || !propagate(next)) continue;
+
+            if (isSolved(next)) {
+                if (count == 0L && firstSolution != null) extract(next, firstSolution);
+                if (++count >= limit) break;
+                continue;
+            }
+
+            depth++;
+            branchCell[depth] = pickCell(next);
+            branchDigits[depth] = candidates(next, branchCell[depth]);
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks whether the given puzzle has a solution other than the given grid, one of its
+     * solutions. Unsolved cells are taken one at a time, fewest candidates first; each is
+     * searched for a solution with a digit other than the grid's, then filled with the grid's
+     * digit in the kept frame. The grid itself is never searched for.
+     * @param puzzle 81-length board; 0 for empty cells.
+     * @param grid Solution of the puzzle.
+     * @param witness (Optional) Receives the other solution, if found.
+     */
+    boolean hasAlternative(int[] puzzle, int[] grid, int[] witness) {
+        if (!load(puzzle)) return false;
+        System.arraycopy(s, 0, s, KEPT, FRAME);
+        while (!isSolved(KEPT)) {
+            int ci = pickCell(KEPT);
+            if (hasAlternativeAt(KEPT, ci, grid[ci] - 1, witness)) return true;
+            // The grid is a solution, so propagating its digits can't fail.
+            place(KEPT, grid[ci] - 1, ci);
+            propagate(KEPT);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given puzzle has a solution with a digit other than the grid's at the
+     * given cell.
+     * @param puzzle 81-length board; 0 for empty cells.
+     * @param grid Solution of the puzzle.
+     * @param witness (Optional) Receives the other solution, if found.
+     */
+    boolean hasAlternative(int[] puzzle, int[] grid, int ci, int[] witness) {
+        if (!load(puzzle)) return false;
+        if ((s[UNSOLVED + CELL_WORD[ci]] & CELL_BIT[ci]) == 0L) return false;
+        System.arraycopy(s, 0, s, KEPT, FRAME);
+        return hasAlternativeAt(KEPT, ci, grid[ci] - 1, witness);
+    }
+
+    /**
+     * Searches from the frame at offset <code>f</code>, with digit index <code>d</code> removed
+     * from the unsolved cell <code>ci</code>, for any solution.
+     */
+    private boolean hasAlternativeAt(int f, int ci, int d, int[] witness) {
+        System.arraycopy(s, f, s, 0, FRAME);
+        s[2*d + CELL_WORD[ci]] &= ~CELL_BIT[ci];
+        return propagate(0) && search(1L, witness) > 0L;
+    }
+
+    /**
+     * Counts solutions of the given board, up to <code>limit</code>.
+     * @param digits 81-length board; 0 for empty cells.
+     * @param limit Maximum number of solutions to count.
+     * @param firstSolution (Optional) Receives the first solution found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    long countSolutions(int[] digits, long limit, int[] firstSolution) {
+        if (!load(digits)) return 0L;
+        return search(limit, firstSolution);
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.ALL;
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.RANK;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+/**
+ * Whole-board operations over the 81-cell digit and candidate arrays.
+ *
+ * This class is the scalar implementation. When the JVM is started with
+ * <code>--add-modules jdk.incubator.vector</code>, <code>CandidateKernels.get()</code>
+ * returns <code>VectorCandidateKernels</code> instead, which does the same work with the
+ * incubating Vector API. The vector path can be turned off with <code>-Dsudoku.vector=false</code>.
+ *
+ * The kernels use only Sudoku's compile-time constants and their own index tables, so they
+ * load the same whether or not Sudoku has finished initializing.
+ */
+class CandidateKernels {
+    static final String VECTOR_MODULE = "jdk.incubator.vector";
+    static final String VECTOR_PROPERTY = "sudoku.vector";
+
+    /** Row, column, and region of each cell. */
+    static final int[] CELL_ROWS = new int[SPACES];
+    static final int[] CELL_COLS = new int[SPACES];
+    static final int[] CELL_REGIONS = new int[SPACES];
+    static {
+        for (int ci = 0; ci < SPACES; ci++) {
+            CELL_ROWS[ci] = ci / DIGITS;
+            CELL_COLS[ci] = ci % DIGITS;
+            CELL_REGIONS[ci] = (ci / (RANK * DIGITS)) * RANK + (ci % DIGITS) / RANK;
+        }
+    }
+
+    /** The scalar kernels; always available. */
+    static final CandidateKernels SCALAR = new CandidateKernels();
+
+    private static final CandidateKernels INSTANCE = load();
+
+    /**
+     * @return The vector kernels if the Vector API module is enabled; otherwise the scalar kernels.
+     * @throws IllegalStateException If the module is enabled but the vector kernels fail to load.
+     */
+    static CandidateKernels get() {
+        return INSTANCE;
+    }
+
+    private static CandidateKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) return SCALAR;
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) return SCALAR;
+        try {
+            // Loaded reflectively so this class never links against the incubator module.
+            return (CandidateKernels) Class.forName(CandidateKernels.class.getPackageName() + ".VectorCandidateKernels")
+                .getDeclaredConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                "Failed to load vector kernels; run with -D" + VECTOR_PROPERTY + "=false to use scalar kernels",
+                e
+            );
+        }
+    }
+
+    /** @return The digit encoded as a candidate bit; 0 for an empty cell. */
+    static int encode(int digit) {
+        return (digit > 0) ? 1 << (digit - 1) : 0;
+    }
+
+    /** @return True if this is the Vector API implementation. */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Recomputes every cell's candidates: a filled cell's own digit, or for an empty cell,
+     * every digit not already placed in its row, column, or region.
+     * @param digits 81-length board; 0 for empty cells.
+     * @param constraints The board's 9 packed constraint words.
+     * @param candidates 81-length array to receive the candidates.
+     */
+    void recomputeCandidates(int[] digits, int[] constraints, int[] candidates) {
+        for (int ci = 0; ci < SPACES; ci++) {
+            candidates[ci] = cellCandidates(digits, constraints, ci);
+        }
+    }
+
+    /** Candidates of a single cell; see <code>recomputeCandidates</code>. */
+    static int cellCandidates(int[] digits, int[] constraints, int ci) {
+        int digit = digits[ci];
+        return (digit > 0) ? encode(digit) : (ALL & ~(
+            (constraints[CELL_ROWS[ci]] >> (DIGITS * 2)) |
+            (constraints[CELL_COLS[ci]] >> DIGITS) |
+            constraints[CELL_REGIONS[ci]]
+        ));
+    }
+
+    /**
+     * @return The fewest candidates of any empty cell; or <code>DIGITS + 1</code> if there are no empty cells.
+     */
+    int minCandidateCount(int[] digits, int[] candidates) {
+        int min = DIGITS + 1;
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (digits[ci] == 0) {
+                min = Math.min(min, Integer.bitCount(candidates[ci]));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return True if every cell holds a digit 1-9.
+     */
+    boolean isFull(int[] digits) {
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (digits[ci] <= 0 || digits[ci] > DIGITS) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if every cell is 0-9 and no row, column, or region repeats a digit.
+     */
+    boolean isValid(int[] digits) {
+        int[] units = new int[3 * DIGITS];
+        for (int ci = 0; ci < SPACES; ci++) {
+            int digit = digits[ci];
+            if (digit < 0 || digit > DIGITS) return false;
+            if (digit == 0) continue;
+
+            int digitMask = encode(digit);
+            int row = CELL_ROWS[ci];
+            int col = DIGITS + CELL_COLS[ci];
+            int region = 2*DIGITS + CELL_REGIONS[ci];
+            if (((units[row] | units[col] | units[region]) & digitMask) > 0) return false;
+            units[row] |= digitMask;
+            units[col] |= digitMask;
+            units[region] |= digitMask;
+        }
+        return true;
+    }
+}
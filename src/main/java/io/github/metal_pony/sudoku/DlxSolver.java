@@ -0,0 +1,251 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+import java.util.function.Function;
+
+/**
+ * Solver engine that treats sudoku as an exact cover problem, using Knuth's Algorithm X
+ * with dancing links.
+ *
+ * There are 324 constraints (columns): each cell holds a digit, and each row, column,
+ * and region holds each digit once. There are 729 options (rows): one per cell and digit,
+ * each covering exactly 4 constraints. The links are kept in flat int arrays rather than
+ * node objects; a template of the full matrix is built once and copied in on every load.
+ *
+ * Instances are not thread-safe. Use <code>DlxSolver.local()</code> for a reusable
+ * per-thread instance.
+ */
+final class DlxSolver {
+    static final int COLUMNS = 4 * SPACES;
+    static final int OPTIONS = SPACES * DIGITS;
+    /** Root, one header per column, then 4 nodes per option. */
+    static final int NODES = 1 + COLUMNS + 4 * OPTIONS;
+    private static final int ROOT = 0;
+
+    private static final int[] TEMPLATE_L = new int[NODES];
+    private static final int[] TEMPLATE_R = new int[NODES];
+    private static final int[] TEMPLATE_U = new int[NODES];
+    private static final int[] TEMPLATE_D = new int[NODES];
+    private static final int[] TEMPLATE_SIZE = new int[COLUMNS + 1];
+    /** Column header of each node. */
+    private static final int[] COL = new int[NODES];
+    /** Option (<code>ci * 9 + digit - 1</code>) of each node. */
+    private static final int[] OPTION = new int[NODES];
+    /** First node of each option. */
+    private static final int[] OPTION_NODE = new int[OPTIONS];
+    static {
+        for (int h = 0; h <= COLUMNS; h++) {
+            TEMPLATE_L[h] = (h == 0) ? COLUMNS : h - 1;
+            TEMPLATE_R[h] = (h == COLUMNS) ? 0 : h + 1;
+            TEMPLATE_U[h] = h;
+            TEMPLATE_D[h] = h;
+            COL[h] = h;
+        }
+
+        int node = COLUMNS + 1;
+        int[] cols = new int[4];
+        for (int ci = 0; ci < SPACES; ci++) {
+            int row = Sudoku.CELL_ROWS[ci];
+            int col = Sudoku.CELL_COLS[ci];
+            int region = Sudoku.CELL_REGIONS[ci];
+            for (int d = 0; d < DIGITS; d++) {
+                int option = ci * DIGITS + d;
+                cols[0] = ci;
+                cols[1] = SPACES + row * DIGITS + d;
+                cols[2] = 2 * SPACES + col * DIGITS + d;
+                cols[3] = 3 * SPACES + region * DIGITS + d;
+
+                int first = node;
+                OPTION_NODE[option] = first;
+                for (int k = 0; k < 4; k++) {
+                    int h = cols[k] + 1;
+                    int n = node++;
+                    COL[n] = h;
+                    OPTION[n] = option;
+                    TEMPLATE_U[n] = TEMPLATE_U[h];
+                    TEMPLATE_D[n] = h;
+                    TEMPLATE_D[TEMPLATE_U[h]] = n;
+                    TEMPLATE_U[h] = n;
+                    TEMPLATE_SIZE[h]++;
+                    TEMPLATE_L[n] = (k == 0) ? first + 3 : n - 1;
+                    TEMPLATE_R[n] = (k == 3) ? first : n + 1;
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<DlxSolver> LOCAL = ThreadLocal.withInitial(DlxSolver::new);
+
+    /**
+     * @return A solver instance reserved for the calling thread.
+     */
+    static DlxSolver local() {
+        return LOCAL.get();
+    }
+
+    private final int[] L = new int[NODES];
+    private final int[] R = new int[NODES];
+    private final int[] U = new int[NODES];
+    private final int[] D = new int[NODES];
+    private final int[] size = new int[COLUMNS + 1];
+    /** Selected node per search depth. */
+    private final int[] choice = new int[SPACES + 1];
+    /** Board being filled in; complete whenever every column is covered. */
+    private final int[] board = new int[SPACES];
+
+    /**
+     * Loads the given board, selecting the option for each given digit.
+     * @param digits 81-length board; 0 for empty cells.
+     * @return False if the givens conflict.
+     */
+    boolean load(int[] digits) {
+        System.arraycopy(TEMPLATE_L, 0, L, 0, NODES);
+        System.arraycopy(TEMPLATE_R, 0, R, 0, NODES);
+        System.arraycopy(TEMPLATE_U, 0, U, 0, NODES);
+        System.arraycopy(TEMPLATE_D, 0, D, 0, NODES);
+        System.arraycopy(TEMPLATE_SIZE, 0, size, 0, COLUMNS + 1);
+        System.arraycopy(digits, 0, board, 0, SPACES);
+
+        for (int ci = 0; ci < SPACES; ci++) {
+            int digit = digits[ci];
+            if (digit == 0) continue;
+
+            // An option is still available as long as none of its constraints are covered.
+            int first = OPTION_NODE[ci * DIGITS + digit - 1];
+            int n = first;
+            do {
+                int c = COL[n];
+                if (R[L[c]] != c) return false;
+                n = R[n];
+            } while (n != first);
+
+            cover(COL[first]);
+            select(first);
+        }
+        return true;
+    }
+
+    private void cover(int c) {
+        R[L[c]] = R[c];
+        L[R[c]] = L[c];
+        for (int i = D[c]; i != c; i = D[i]) {
+            for (int j = R[i]; j != i; j = R[j]) {
+                U[D[j]] = U[j];
+                D[U[j]] = D[j];
+                size[COL[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c) {
+        for (int i = U[c]; i != c; i = U[i]) {
+            for (int j = L[i]; j != i; j = L[j]) {
+                size[COL[j]]++;
+                U[D[j]] = j;
+                D[U[j]] = j;
+            }
+        }
+        R[L[c]] = c;
+        L[R[c]] = c;
+    }
+
+    /** Places the option of node <code>r</code>, covering its other constraints. */
+    private void select(int r) {
+        int option = OPTION[r];
+        board[option / DIGITS] = option % DIGITS + 1;
+        for (int j = R[r]; j != r; j = R[j]) cover(COL[j]);
+    }
+
+    /** Reverts <code>select(r)</code>. */
+    private void unselect(int r) {
+        for (int j = L[r]; j != r; j = L[j]) uncover(COL[j]);
+    }
+
+    /** Picks the uncovered column with the fewest options. */
+    private int chooseColumn() {
+        int best = R[ROOT];
+        int min = size[best];
+        for (int c = R[best]; c != ROOT && min > 1; c = R[c]) {
+            if (size[c] < min) {
+                min = size[c];
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Enumerates solutions of the loaded board, stopping once <code>limit</code> are found,
+     * or when the callback returns false.
+     * Must be preceded by a successful call to <code>load</code>.
+     * @param limit Maximum number of solutions to find.
+     * @param solutionCallback (Optional) Receives each solution, in an array that is reused
+     * between calls; returns whether to keep searching.
+     * @return Number of solutions found.
+     */
+    long search(long limit, Function<int[],Boolean> solutionCallback) {
+        long count = 0L;
+        int depth = 0;
+        boolean backtrack = false;
+
+        while (true) {
+            if (!backtrack) {
+                if (R[ROOT] == ROOT) {
+                    count++;
+                    if (solutionCallback != null && !solutionCallback.apply(board)) break;
+                    if (count >= limit) break;
+                    backtrack = true;
+                } else {
+                    int c = chooseColumn();
+                    cover(c);
+                    int r = D[c];
+                    if (r == c) {
+                        uncover(c);
+                        backtrack = true;
+                    } else {
+                        choice[depth++] = r;
+                        select(r);
+                    }
+                    continue;
+                }
+            }
+
+            if (depth == 0) break;
+            int r = choice[--depth];
+            int c = COL[r];
+            unselect(r);
+            r = D[r];
+            if (r != c) {
+                choice[depth++] = r;
+                select(r);
+                backtrack = false;
+            } else {
+                uncover(c);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Counts solutions of the given board, up to <code>limit</code>.
+     * @param digits 81-length board; 0 for empty cells.
+     * @param limit Maximum number of solutions to count.
+     * @param firstSolution (Optional) Receives the first solution found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    long countSolutions(int[] digits, long limit, int[] firstSolution) {
+        if (!load(digits)) return 0L;
+        if (firstSolution == null) return search(limit, null);
+        boolean[] first = { true };
+        return search(limit, solution -> {
+            if (first[0]) {
+                System.arraycopy(solution, 0, firstSolution, 0, SPACES);
+                first[0] = false;
+            }
+            return true;
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.metal_pony.sudoku;
+
+import java.util.Arrays;
+
+/**
+ * Bounded record of which clue masks of one grid were found to solve uniquely, for
+ * <code>Sudoku.generatePuzzle</code>.
+ *
+ * Masks are looked up exactly in an open-addressing table of their two words. Since adding
+ * clues never adds solutions, a mask that contains a known unique mask is unique too;
+ * <code>get</code> also answers from those. Known non-unique masks are only matched exactly:
+ * in <code>generatePuzzle</code> the sieve already rejects their subsets.
+ * Once the table is full, all masks are dropped and it starts again empty.
+ *
+ * Not thread-safe.
+ */
+final class MaskMemo {
+    static final int UNKNOWN = 0;
+    static final int UNIQUE = 1;
+    static final int NOT_UNIQUE = 2;
+
+    // Table slots: mask words and result, or UNKNOWN if empty.
+    private final long[] keys0;
+    private final long[] keys1;
+    private final byte[] results;
+    private final int slotMask;
+    private final int maxSize;
+
+    private int size = 0;
+    // Unique masks in insertion order, for the superset scan.
+    private final long[] unique0;
+    private final long[] unique1;
+    private int numUnique = 0;
+
+    /**
+     * @param maxSize Number of masks kept before the memo is cleared.
+     */
+    MaskMemo(int maxSize) {
+        if (maxSize < 1 || maxSize > (1 << 29)) {
+            throw new IllegalArgumentException("maxSize must be within [1, 2^29]");
+        }
+        int capacity = Integer.highestOneBit(maxSize - 1 | 1) << 2;
+        this.keys0 = new long[capacity];
+        this.keys1 = new long[capacity];
+        this.results = new byte[capacity];
+        this.slotMask = capacity - 1;
+        this.maxSize = maxSize;
+        this.unique0 = new long[maxSize];
+        this.unique1 = new long[maxSize];
+    }
+
+    /** @return Number of masks recorded. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return <code>UNIQUE</code> if the mask or a subset of it is recorded as unique;
+     * <code>NOT_UNIQUE</code> if the mask itself is recorded as not unique;
+     * otherwise <code>UNKNOWN</code>.
+     */
+    int get(SudokuMask mask) {
+        long b0 = mask.bits[0];
+        long b1 = mask.bits[1];
+        for (int i = slot(b0, b1); results[i] != UNKNOWN; i = (i + 1) & slotMask) {
+            if (keys0[i] == b0 && keys1[i] == b1) return results[i];
+        }
+        for (int i = numUnique - 1; i >= 0; i--) {
+            if ((unique0[i] & ~b0) == 0L && (unique1[i] & ~b1) == 0L) return UNIQUE;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Records whether the mask solves uniquely. Masks already recorded are ignored.
+     */
+    void put(SudokuMask mask, boolean unique) {
+        long b0 = mask.bits[0];
+        long b1 = mask.bits[1];
+        if (size == maxSize) clear();
+
+        int i = slot(b0, b1);
+        for (; results[i] != UNKNOWN; i = (i + 1) & slotMask) {
+            if (keys0[i] == b0 && keys1[i] == b1) return;
+        }
+        keys0[i] = b0;
+        keys1[i] = b1;
+        size++;
+        if (unique) {
+            results[i] = UNIQUE;
+            unique0[numUnique] = b0;
+            unique1[numUnique++] = b1;
+        } else {
+            results[i] = NOT_UNIQUE;
+        }
+    }
+
+    /** Removes all masks. */
+    void clear() {
+        Arrays.fill(results, (byte) UNKNOWN);
+        size = 0;
+        numUnique = 0;
+    }
+
+    private int slot(long b0, long b1) {
+        long h = (b0 ^ (b1 * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        return (int) (h >>> 32) & slotMask;
+    }
+}
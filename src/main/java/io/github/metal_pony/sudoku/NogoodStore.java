@@ -0,0 +1,279 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded store of nogoods: small sets of cell assignments that cannot all hold in any solution.
+ *
+ * A nogood is learned when a branch of a count fails. It holds only the assignments that the
+ * contradiction actually follows from, so it also rules out sibling branches that differ in
+ * choices the contradiction never depended on.
+ *
+ * Nogoods are relative to a base board: the reduced board of the first count the store is
+ * used for. Its digits are left out of every nogood, which keeps them small, so the store
+ * remains valid for counting any board that holds all of the base digits, such as the base
+ * puzzle with clues added. Counting a board that doesn't clears the store and starts over.
+ *
+ * Each nogood is indexed by every one of its assignments; before a branch is tried, the
+ * nogoods containing its assignment are checked against the board. When the store is full,
+ * the least recently used nogood is evicted. All methods are synchronized.
+ */
+public final class NogoodStore {
+    /** Default number of nogoods kept. */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    /** Default maximum number of assignments in a stored nogood. */
+    public static final int DEFAULT_MAX_LITERALS = 20;
+
+    /** Number of distinct (cell, digit) assignments. */
+    static final int LITERALS = SPACES * DIGITS;
+
+    /** Identifies a cell assignment; digit is 1-9. */
+    static int literal(int ci, int digit) {
+        return ci * DIGITS + digit - 1;
+    }
+
+    private final int capacity;
+    private final int maxLiterals;
+    private final Map<Nogood,Nogood> lru;
+    /** Nogoods by each of their literals; null where there are none. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Nogood>[] watches = new List[LITERALS];
+
+    private int[] base = null;
+    private long probes = 0L;
+    private long hits = 0L;
+
+    /**
+     * Creates a store holding up to the given number of nogoods of at most
+     * <code>DEFAULT_MAX_LITERALS</code> assignments.
+     * @param capacity Maximum number of nogoods kept.
+     */
+    public NogoodStore(int capacity) {
+        this(capacity, DEFAULT_MAX_LITERALS);
+    }
+
+    /**
+     * Creates a store.
+     * @param capacity Maximum number of nogoods kept.
+     * @param maxLiterals Larger nogoods are not stored; they rarely match again.
+     */
+    public NogoodStore(int capacity, int maxLiterals) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (maxLiterals < 1 || maxLiterals > SPACES) {
+            throw new IllegalArgumentException("maxLiterals must be within [1, 81]");
+        }
+        this.capacity = capacity;
+        this.maxLiterals = maxLiterals;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Nogood,Nogood> eldest) {
+                if (size() <= NogoodStore.this.capacity) return false;
+                unwatch(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /** @return Maximum number of nogoods kept. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return Number of nogoods currently stored. */
+    public synchronized int size() {
+        return lru.size();
+    }
+
+    /** @return Number of branches checked against the store so far. */
+    public synchronized long probes() {
+        return probes;
+    }
+
+    /** @return Number of branches pruned by a stored nogood. */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Removes all nogoods. */
+    public synchronized void clear() {
+        lru.clear();
+        Arrays.fill(watches, null);
+        base = null;
+    }
+
+    /**
+     * Prepares the store for counting the given reduced board, clearing it unless the board
+     * holds every digit of the current base.
+     * @return The base board; digits already on it are left out of nogoods.
+     */
+    synchronized int[] baseFor(int[] digits) {
+        if (base != null) {
+            for (int ci = 0; ci < SPACES; ci++) {
+                if (base[ci] > 0 && base[ci] != digits[ci]) {
+                    clear();
+                    break;
+                }
+            }
+        }
+        if (base == null) base = digits.clone();
+        return base;
+    }
+
+    /**
+     * Finds a stored nogood that placing <code>digit</code> at <code>ci</code> would complete.
+     * @param digits The board before the placement.
+     * @return Literals of the nogood (including the placement's); or null if there is none.
+     */
+    synchronized int[] find(int[] digits, int ci, int digit) {
+        probes++;
+        int lit = literal(ci, digit);
+        if (watches[lit] == null) return null;
+        for (Nogood nogood : watches[lit]) {
+            if (holds(nogood.literals, digits, lit)) {
+                hits++;
+                lru.get(nogood);
+                return nogood.literals;
+            }
+        }
+        return null;
+    }
+
+    private static boolean holds(int[] literals, int[] digits, int except) {
+        for (int l : literals) {
+            if (l != except && digits[l / DIGITS] != l % DIGITS + 1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the conflict's assignments as a nogood, unless it is too large or already stored.
+     * @return True if stored.
+     */
+    synchronized boolean add(Conflict conflict) {
+        if (!conflict.known || conflict.size() > maxLiterals || conflict.size() == 0) return false;
+        Nogood nogood = new Nogood(conflict.literals());
+        if (lru.containsKey(nogood)) return false;
+        for (int l : nogood.literals) {
+            if (watches[l] == null) watches[l] = new ArrayList<>();
+            watches[l].add(nogood);
+        }
+        lru.put(nogood, nogood);
+        return true;
+    }
+
+    private void unwatch(Nogood nogood) {
+        for (int l : nogood.literals) {
+            List<Nogood> watch = watches[l];
+            for (int i = watch.size() - 1; i >= 0; i--) {
+                if (watch.get(i) == nogood) {
+                    watch.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static final class Nogood {
+        final int[] literals;
+        final int hash;
+
+        Nogood(int[] literals) {
+            this.literals = literals;
+            this.hash = Arrays.hashCode(literals);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Nogood) && Arrays.equals(literals, ((Nogood) obj).literals);
+        }
+    }
+
+    /**
+     * Assignments a failed subtree's contradiction follows from, built up during a count.
+     * Unknown if the subtree had solutions, or its failure could not be explained.
+     */
+    static final class Conflict {
+        private static final int WORDS = (LITERALS + Long.SIZE - 1) / Long.SIZE;
+
+        /** Digits that need no explaining; see <code>baseFor</code>. */
+        final int[] base;
+
+        private final long[] bits = new long[WORDS];
+        /** Cells whose placements are already accounted for by the literals. */
+        private final long[] explained = new long[2];
+        boolean known = true;
+
+        Conflict(int[] base) {
+            this.base = base;
+        }
+
+        void reset() {
+            Arrays.fill(bits, 0L);
+            explained[0] = 0L;
+            explained[1] = 0L;
+            known = true;
+        }
+
+        void add(int lit) {
+            bits[lit >>> 6] |= 1L << lit;
+        }
+
+        /** Adds the literals of a nogood that a branch completed, other than the branch's own. */
+        void addAllExcept(int[] literals, int except) {
+            for (int l : literals) {
+                if (l != except) add(l);
+            }
+        }
+
+        /** Adds the literals of a failed child branch, other than the branch's own. */
+        void addAllExcept(Conflict child, int except) {
+            for (int i = 0; i < WORDS; i++) bits[i] |= child.bits[i];
+            bits[except >>> 6] &= ~(1L << except);
+        }
+
+        int size() {
+            int size = 0;
+            for (long word : bits) size += Long.bitCount(word);
+            return size;
+        }
+
+        /** @return The literals, in ascending order. */
+        int[] literals() {
+            int[] result = new int[size()];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                for (long word = bits[i]; word != 0L; word &= word - 1) {
+                    result[n++] = i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Marks the cell explained.
+         * @return False if it already was, or its digit is on the base board.
+         */
+        boolean markExplained(int ci, int digit) {
+            if (base[ci] == digit) return false;
+            long bit = 1L << ci;
+            int i = ci >>> 6;
+            if ((explained[i] & bit) != 0L) return false;
+            explained[i] |= bit;
+            return true;
+        }
+    }
+}
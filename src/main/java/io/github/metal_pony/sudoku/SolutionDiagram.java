@@ -0,0 +1,355 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.ALL;
+import static io.github.metal_pony.sudoku.Sudoku.CANDIDATES_ARR;
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.ENCODER;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+
+/**
+ * All solutions of a puzzle, as a reduced decision diagram rather than a list.
+ *
+ * The puzzle's empty cells are decided in a fixed order, one level per cell. A node at some
+ * level stands for every way to complete the board from that cell on, with one edge per digit
+ * that leads to a completion. Boards that agree on the digits each unit still needs share a
+ * node, and nodes with the same edges are merged, so the diagram is usually far smaller than
+ * the list of solutions. Branches without solutions are left out entirely.
+ *
+ * Counts are kept per node, which makes counting, uniform sampling, and per-cell digit
+ * frequencies cheap once the diagram is built.
+ */
+public final class SolutionDiagram {
+    /** Default limit on the number of search states explored while building. */
+    public static final int DEFAULT_MAX_STATES = 1 << 24;
+
+    /** Id of the node every complete board leads to. */
+    private static final int TERMINAL = 0;
+    /** Id standing for "no completions"; never stored as a node. */
+    private static final int NONE = -1;
+
+    /** The puzzle after reduction; 0 for the cells the diagram decides. */
+    private final int[] fixed;
+    /** Cells decided by each level. */
+    private final int[] order;
+
+    // Nodes, by id. Children are always created before their parents.
+    private int numNodes = 1;
+    private int[] nodeLevel = new int[1024];
+    private int[] nodeFirstEdge = new int[1024];
+    private long[] nodeCount = new long[1024];
+    // Edges of node i are [nodeFirstEdge[i], nodeFirstEdge[i + 1]).
+    private int numEdges = 0;
+    private byte[] edgeDigit = new byte[4096];
+    private int[] edgeChild = new int[4096];
+    private final int root;
+
+    /**
+     * Builds the diagram of all solutions of the given puzzle.
+     * See <code>SolutionDiagram(Sudoku, int)</code>.
+     */
+    public SolutionDiagram(Sudoku puzzle) {
+        this(puzzle, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Builds the diagram of all solutions of the given puzzle.
+     * @param puzzle The puzzle.
+     * @param maxStates Limit on the number of distinct search states explored.
+     * @throws IllegalStateException If the limit is exceeded.
+     */
+    public SolutionDiagram(Sudoku puzzle, int maxStates) {
+        if (maxStates < 1) throw new IllegalArgumentException("maxStates must be positive");
+        Sudoku reduced = new Sudoku(puzzle);
+        reduced.resetCandidatesAndValidity();
+        if (reduced.isValid) reduced.reduce();
+
+        this.fixed = reduced.getBoard();
+        this.order = new int[reduced.numEmptyCells()];
+        for (int ci = 0, level = 0; ci < SPACES; ci++) {
+            if (fixed[ci] == 0) order[level++] = ci;
+        }
+        nodeLevel[TERMINAL] = order.length;
+        nodeCount[TERMINAL] = 1L;
+
+        if (!reduced.isValid) {
+            this.root = NONE;
+        } else {
+            Builder builder = new Builder(reduced.constraints, maxStates);
+            this.root = builder.build(0);
+        }
+        nodeFirstEdge[numNodes] = numEdges;
+    }
+
+    /** @return Number of solutions. */
+    public long count() {
+        return (root == NONE) ? 0L : nodeCount[root];
+    }
+
+    /** @return Number of nodes in the diagram, including the terminal node. */
+    public int numNodes() {
+        return (root == NONE) ? 0 : numNodes;
+    }
+
+    /** @return Number of edges in the diagram. */
+    public int numEdges() {
+        return numEdges;
+    }
+
+    /**
+     * Picks a solution uniformly at random.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku sample(RandomGenerator rand) {
+        if (root == NONE) return null;
+        int[] board = fixed.clone();
+        int node = root;
+        while (node != TERMINAL) {
+            long r = rand.nextLong(nodeCount[node]);
+            int e = nodeFirstEdge[node];
+            while (r >= nodeCount[edgeChild[e]]) {
+                r -= nodeCount[edgeChild[e]];
+                e++;
+            }
+            board[order[nodeLevel[node]]] = edgeDigit[e];
+            node = edgeChild[e];
+        }
+        return new Sudoku(board);
+    }
+
+    /**
+     * Counts, for every cell and digit, the solutions with that digit in that cell.
+     * @return Array indexed by cell, then digit (index 0 is unused).
+     */
+    public long[][] digitFrequencies() {
+        long[][] freq = new long[SPACES][DIGITS + 1];
+        if (root == NONE) return freq;
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (fixed[ci] > 0) freq[ci][fixed[ci]] = count();
+        }
+
+        // Number of paths from the root to each node; parents have larger ids than children.
+        long[] paths = new long[numNodes];
+        paths[root] = 1L;
+        for (int node = root; node > TERMINAL; node--) {
+            if (paths[node] == 0L) continue;
+            int ci = order[nodeLevel[node]];
+            for (int e = nodeFirstEdge[node]; e < nodeFirstEdge[node + 1]; e++) {
+                int child = edgeChild[e];
+                paths[child] = Math.addExact(paths[child], paths[node]);
+                freq[ci][edgeDigit[e]] = Math.addExact(freq[ci][edgeDigit[e]], Math.multiplyExact(paths[node], nodeCount[child]));
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * Walks the solutions in the diagram, handing each to the callback until it returns false.
+     * Solutions are generated as they are visited, so none are kept.
+     * @param solutionCallback Receives each solution; returns whether to keep going.
+     */
+    public void forEachSolution(Function<Sudoku,Boolean> solutionCallback) {
+        if (root == NONE) return;
+        int[] board = fixed.clone();
+        walk(root, board, solutionCallback);
+    }
+
+    private boolean walk(int node, int[] board, Function<Sudoku,Boolean> solutionCallback) {
+        if (node == TERMINAL) return solutionCallback.apply(new Sudoku(board));
+        int ci = order[nodeLevel[node]];
+        for (int e = nodeFirstEdge[node]; e < nodeFirstEdge[node + 1]; e++) {
+            board[ci] = edgeDigit[e];
+            if (!walk(edgeChild[e], board, solutionCallback)) return false;
+        }
+        board[ci] = 0;
+        return true;
+    }
+
+    /** Adds a node with the given edges; see <code>Builder.unique</code>. */
+    private int addNode(int level, int[] digits, int[] children, int numChildren) {
+        if (numNodes + 2 > nodeLevel.length) {
+            nodeLevel = Arrays.copyOf(nodeLevel, nodeLevel.length * 2);
+            nodeFirstEdge = Arrays.copyOf(nodeFirstEdge, nodeFirstEdge.length * 2);
+            nodeCount = Arrays.copyOf(nodeCount, nodeCount.length * 2);
+        }
+        if (numEdges + numChildren > edgeChild.length) {
+            edgeDigit = Arrays.copyOf(edgeDigit, edgeDigit.length * 2);
+            edgeChild = Arrays.copyOf(edgeChild, edgeChild.length * 2);
+        }
+
+        int node = numNodes++;
+        long count = 0L;
+        nodeLevel[node] = level;
+        nodeFirstEdge[node] = numEdges;
+        for (int i = 0; i < numChildren; i++) {
+            edgeDigit[numEdges] = (byte) digits[i];
+            edgeChild[numEdges++] = children[i];
+            count = Math.addExact(count, nodeCount[children[i]]);
+        }
+        nodeCount[node] = count;
+        return node;
+    }
+
+    /** Depth-first construction state; discarded once the diagram is built. */
+    private final class Builder {
+        private final int[] constraints;
+        private final int maxStates;
+        /** Node (or NONE) by the constraints that matter to the cells from a level on. */
+        private final Map<StateKey,Integer> states = new HashMap<>();
+        /** Node by its level and edges, so no two nodes are alike. */
+        private final Map<EdgeKey,Integer> nodes = new HashMap<>();
+        /** Per level, the constraint bits of units that still have undecided cells. */
+        private final int[][] relevant;
+        /** Per level, the peers of the level's cell decided at later levels. */
+        private final int[][] laterPeers;
+
+        Builder(int[] constraints, int maxStates) {
+            this.constraints = constraints.clone();
+            this.maxStates = maxStates;
+
+            int[] levelOf = new int[SPACES];
+            Arrays.fill(levelOf, -1);
+            for (int level = 0; level < order.length; level++) levelOf[order[level]] = level;
+
+            this.relevant = new int[order.length + 1][DIGITS];
+            this.laterPeers = new int[order.length][];
+            for (int level = order.length - 1; level >= 0; level--) {
+                int ci = order[level];
+                relevant[level] = relevant[level + 1].clone();
+                relevant[level][Sudoku.CELL_ROWS[ci]] |= ALL << (DIGITS * 2);
+                relevant[level][Sudoku.CELL_COLS[ci]] |= ALL << DIGITS;
+                relevant[level][Sudoku.CELL_REGIONS[ci]] |= ALL;
+
+                final int l = level;
+                laterPeers[level] = Arrays.stream(Sudoku.CELL_NEIGHBORS[ci])
+                    .filter(ni -> levelOf[ni] > l)
+                    .toArray();
+            }
+        }
+
+        private int candidates(int ci) {
+            return ALL & ~(
+                (constraints[Sudoku.CELL_ROWS[ci]] >> (DIGITS * 2)) |
+                (constraints[Sudoku.CELL_COLS[ci]] >> DIGITS) |
+                constraints[Sudoku.CELL_REGIONS[ci]]
+            );
+        }
+
+        private void toggle(int ci, int digit) {
+            int dMask = ENCODER[digit];
+            constraints[Sudoku.CELL_ROWS[ci]] ^= dMask << (DIGITS * 2);
+            constraints[Sudoku.CELL_COLS[ci]] ^= dMask << DIGITS;
+            constraints[Sudoku.CELL_REGIONS[ci]] ^= dMask;
+        }
+
+        /** @return The node for completing the board from the given level; or NONE. */
+        int build(int level) {
+            if (level == order.length) return TERMINAL;
+
+            StateKey key = new StateKey(level, constraints, relevant[level]);
+            Integer known = states.get(key);
+            if (known != null) return known;
+            if (states.size() >= maxStates) {
+                throw new IllegalStateException("Solution diagram exceeds " + maxStates + " states");
+            }
+
+            int ci = order[level];
+            int[] digits = new int[DIGITS];
+            int[] children = new int[DIGITS];
+            int numChildren = 0;
+            for (int digit : CANDIDATES_ARR[candidates(ci)]) {
+                toggle(ci, digit);
+                if (peersHaveCandidates(level)) {
+                    int child = build(level + 1);
+                    if (child != NONE) {
+                        digits[numChildren] = digit;
+                        children[numChildren++] = child;
+                    }
+                }
+                toggle(ci, digit);
+            }
+
+            int node = (numChildren == 0) ? NONE : unique(level, digits, children, numChildren);
+            states.put(key, node);
+            return node;
+        }
+
+        /** @return False if a later peer of the level's cell was left without candidates. */
+        private boolean peersHaveCandidates(int level) {
+            for (int ni : laterPeers[level]) {
+                if (candidates(ni) == 0) return false;
+            }
+            return true;
+        }
+
+        private int unique(int level, int[] digits, int[] children, int numChildren) {
+            int[] edges = new int[1 + 2 * numChildren];
+            edges[0] = level;
+            for (int i = 0; i < numChildren; i++) {
+                edges[1 + 2 * i] = digits[i];
+                edges[2 + 2 * i] = children[i];
+            }
+            return nodes.computeIfAbsent(new EdgeKey(edges), k -> addNode(level, digits, children, numChildren));
+        }
+    }
+
+    /** The constraint bits relevant to a level, packed 27 bits per word. */
+    private static final class StateKey {
+        private final int level;
+        private final long a;
+        private final long b;
+        private final long c;
+        private final long d;
+
+        StateKey(int level, int[] constraints, int[] relevant) {
+            this.level = level;
+            this.a = (constraints[0] & relevant[0]) | ((long) (constraints[1] & relevant[1]) << 27);
+            this.b = (constraints[2] & relevant[2]) | ((long) (constraints[3] & relevant[3]) << 27);
+            this.c = (constraints[4] & relevant[4]) | ((long) (constraints[5] & relevant[5]) << 27);
+            this.d = (constraints[6] & relevant[6]) | ((long) (constraints[7] & relevant[7]) << 27)
+                | ((long) (constraints[8] & relevant[8]) << 54);
+        }
+
+        @Override
+        public int hashCode() {
+            long h = a * 0x9E3779B97F4A7C15L + b;
+            h = h * 0x9E3779B97F4A7C15L + c;
+            h = h * 0x9E3779B97F4A7C15L + d;
+            h = h * 0x9E3779B97F4A7C15L + level;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StateKey)) return false;
+            StateKey o = (StateKey) obj;
+            return level == o.level && a == o.a && b == o.b && c == o.c && d == o.d;
+        }
+    }
+
+    /** A node's level followed by its (digit, child) edges. */
+    private static final class EdgeKey {
+        private final int[] edges;
+        private final int hash;
+
+        EdgeKey(int[] edges) {
+            this.edges = edges;
+            this.hash = Arrays.hashCode(edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof EdgeKey) && Arrays.equals(edges, ((EdgeKey) obj).edges);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.ENCODER;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+
+import java.util.Arrays;
+
+/**
+ * A propagated board that clues can be added to and taken back from, for asking many
+ * questions about boards that differ by a few clues.
+ *
+ * Each <code>assume</code> places a digit and propagates from the current state, recording
+ * every change it makes; <code>retract</code> undoes the most recent one by rolling those
+ * changes back, rather than rebuilding the board from its clues. Queries search a scratch
+ * copy of the current state, so they leave the session as it was.
+ *
+ * Not thread-safe.
+ */
+public final class SolverSession {
+    /** Board as propagated from the puzzle and all current assumptions. */
+    private final Sudoku board;
+    /** Search state for queries; overwritten by each. */
+    private final Sudoku scratch;
+
+    // Per assumption: trail position, number of empty cells, and validity beforehand.
+    private int depth = 0;
+    private int[] marks = new int[16];
+    private int[] emptyCells = new int[16];
+    private boolean[] valid = new boolean[16];
+
+    /**
+     * Starts a session from the given puzzle, which is copied and propagated.
+     * @param puzzle The puzzle.
+     */
+    public SolverSession(Sudoku puzzle) {
+        this.board = new Sudoku(puzzle);
+        board.resetCandidatesAndValidity();
+        if (board.isValid) board.reduce();
+        board.trail = new Sudoku.Trail();
+        this.scratch = new Sudoku(board);
+    }
+
+    /** @return Number of assumptions currently in effect. */
+    public int depth() {
+        return depth;
+    }
+
+    /** @return False if the puzzle and assumptions are known to have no solutions. */
+    public boolean isValid() {
+        return board.isValid;
+    }
+
+    /**
+     * Places a digit and propagates. The assumption is kept, and must be retracted,
+     * even if it leads to a contradiction.
+     * @param ci Cell index.
+     * @param digit Digit to place, 1-9.
+     * @return False if the board now has a contradiction.
+     */
+    public boolean assume(int ci, int digit) {
+        if (ci < 0 || ci >= SPACES) {
+            throw new IllegalArgumentException("cell index must be within [0, 80]");
+        }
+        if (digit < 1 || digit > DIGITS) {
+            throw new IllegalArgumentException("digit must be within [1, 9]");
+        }
+
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+            emptyCells = Arrays.copyOf(emptyCells, depth * 2);
+            valid = Arrays.copyOf(valid, depth * 2);
+        }
+        marks[depth] = board.trail.mark();
+        emptyCells[depth] = board.numEmptyCells;
+        valid[depth] = board.isValid;
+        depth++;
+
+        if (!board.isValid || board.digits[ci] == digit) return board.isValid;
+        if (board.digits[ci] > 0 || (board.candidates[ci] & ENCODER[digit]) == 0) {
+            board.isValid = false;
+            return false;
+        }
+        board.setDigit(ci, digit);
+        board.reduceNeighbors(ci);
+        return board.isValid;
+    }
+
+    /**
+     * Undoes the most recent assumption that is still in effect.
+     * @throws IllegalStateException If there are none.
+     */
+    public void retract() {
+        if (depth == 0) throw new IllegalStateException("No assumptions to retract");
+        depth--;
+        board.trail.rollback(board, marks[depth]);
+        board.numEmptyCells = emptyCells[depth];
+        board.isValid = valid[depth];
+    }
+
+    /** Undoes all assumptions. */
+    public void retractAll() {
+        while (depth > 0) retract();
+    }
+
+    /**
+     * Counts solutions under the current assumptions, stopping once <code>limit</code> are found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    public long countUpTo(long limit) {
+        if (limit < 1L) throw new IllegalArgumentException("limit must be positive");
+        if (!board.isValid) return 0L;
+        scratch.copyBoard(board);
+        return scratch.searchReduced(limit, null);
+    }
+
+    /** @return True if there is a solution under the current assumptions. */
+    public boolean isSatisfiable() {
+        return countUpTo(1L) > 0L;
+    }
+
+    /** @return True if there is exactly one solution under the current assumptions. */
+    public boolean isUnique() {
+        return countUpTo(2L) == 1L;
+    }
+
+    /**
+     * Searches for a solution under the current assumptions.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku solution() {
+        if (!board.isValid) return null;
+        int[] solution = new int[SPACES];
+        scratch.copyBoard(board);
+        return (scratch.searchReduced(1L, solution) > 0L) ? new Sudoku(solution) : null;
+    }
+
+    /** @return A copy of the current board, with all digits placed by propagation. */
+    public Sudoku board() {
+        return new Sudoku(board.getBoard());
+    }
+}
@@ -1,21 +1,38 @@
 package io.github.metal_pony.sudoku;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.SplittableRandom;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 
 import io.github.metal_pony.sudoku.util.ArraysUtil;
 import io.github.metal_pony.sudoku.util.Counting;
@@ -36,6 +53,30 @@ public class Sudoku {
     static final int FULL_CONSTRAINTS = ROW_MASK | COL_MASK | REGION_MASK;
 
     public static final int[] ENCODER = new int[] { 0, 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+
+    /**
+     * Zobrist keys per cell and digit, at <code>ci * 10 + digit</code>; 0 for an empty cell.
+     * Each key combines a key for the cell with keys for the digit in the cell's row, column,
+     * and region. So the XOR over a valid board identifies which cells are filled, and which
+     * digits each unit holds, rather than the exact arrangement of digits.
+     */
+    static final long[] ZOBRIST = new long[SPACES * (DIGITS + 1)];
+    static {
+        SplittableRandom rand = new SplittableRandom(0x5D0C0L);
+        long[] cellKeys = new long[SPACES];
+        long[] unitKeys = new long[3 * DIGITS * (DIGITS + 1)];
+        for (int i = 0; i < cellKeys.length; i++) cellKeys[i] = rand.nextLong();
+        for (int i = 0; i < unitKeys.length; i++) unitKeys[i] = rand.nextLong();
+        for (int ci = 0; ci < SPACES; ci++) {
+            for (int digit = 1; digit <= DIGITS; digit++) {
+                ZOBRIST[ci * (DIGITS + 1) + digit] = cellKeys[ci] ^
+                    unitKeys[cellRow(ci) * (DIGITS + 1) + digit] ^
+                    unitKeys[(DIGITS + cellCol(ci)) * (DIGITS + 1) + digit] ^
+                    unitKeys[(2*DIGITS + cellRegion(ci)) * (DIGITS + 1) + digit];
+            }
+        }
+    }
+
     static final int[] DECODER = new int[1<<DIGITS];
     static {
         for (int digit = 1; digit <= DIGITS; digit++) {
@@ -150,6 +191,17 @@ public class Sudoku {
             STACK_COL_INDICES[stack][colInStack][row] = i;
         }
     }
+    /** Number of units (rows, columns, and regions). */
+    static final int UNITS = 3 * DIGITS;
+    /** Cell indices by unit. Units 0-8 are rows, 9-17 are columns, and 18-26 are regions. */
+    public static int[][] UNIT_INDICES = new int[UNITS][];
+    static {
+        for (int i = 0; i < DIGITS; i++) {
+            UNIT_INDICES[i] = ROW_INDICES[i];
+            UNIT_INDICES[DIGITS + i] = COL_INDICES[i];
+            UNIT_INDICES[2*DIGITS + i] = REGION_INDICES[i];
+        }
+    }
     public static int[][] ROW_NEIGHBORS = new int[SPACES][DIGITS - 1];
     public static int[][] COL_NEIGHBORS = new int[SPACES][DIGITS - 1];
     public static int[][] REGION_NEIGHBORS = new int[SPACES][DIGITS - 1];
@@ -237,41 +289,12 @@ public class Sudoku {
 
     public static boolean isValid(int[] digits) {
         if (digits.length != SPACES) return false;
-
-        int[] rowValidity = new int[DIGITS];
-        int[] colValidity = new int[DIGITS];
-        int[] regionValidity = new int[DIGITS];
-
-        for (int ci = 0; ci < SPACES; ci++) {
-            int digit = digits[ci];
-            if (digit < 0 || digit > DIGITS) return false;
-            if (digit == 0) continue;
-
-            int row = CELL_ROWS[ci];
-            int col = CELL_COLS[ci];
-            int region = CELL_REGIONS[ci];
-            int digitMask = 1 << (digit - 1);
-            if (
-                (digitMask & rowValidity[row]) > 0 ||
-                (digitMask & colValidity[col]) > 0 ||
-                (digitMask & regionValidity[region]) > 0
-            ) {
-                return false;
-            }
-            rowValidity[row] |= digitMask;
-            colValidity[col] |= digitMask;
-            regionValidity[region] |= digitMask;
-        }
-
-        return true;
+        return CandidateKernels.get().isValid(digits);
     }
 
     public static boolean isFull(int[] digits) {
         if (digits.length != SPACES) return false;
-        for (int ci = 0; ci < DIGITS; ci++) {
-            if (digits[ci] <= 0 || digits[ci] > DIGITS) return false;
-        }
-        return true;
+        return CandidateKernels.get().isFull(digits);
     }
 
     public static boolean isSolved(int[] digits) {
@@ -631,6 +654,285 @@ public class Sudoku {
         return strb.toString();
     }
 
+    /**
+     * Search engines available to <code>solution</code>, <code>solutionsFlag</code>,
+     * and <code>countSolutions</code>.
+     */
+    public enum Engine {
+        /** Candidate and constraint arrays, restored from snapshots while searching. */
+        DEFAULT,
+        /** Per-digit 81-bit candidate boards. Deterministic branching order. */
+        BITBOARD,
+        /** Exact cover over 324 constraints and 729 options, using dancing links. */
+        DLX;
+
+        /**
+         * Parses an engine name, case-insensitive.
+         * @throws IllegalArgumentException If the name does not match an engine.
+         */
+        public static Engine parse(String name) {
+            for (Engine engine : values()) {
+                if (engine.name().equalsIgnoreCase(name)) return engine;
+            }
+            throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+    }
+
+    /**
+     * Deduction strength used when reducing candidates, from weakest to strongest.
+     * Each level includes the deductions of the levels before it.
+     */
+    public enum Propagation {
+        /** Naked and hidden singles. */
+        SINGLES,
+        /** Adds pointing pairs and box-line reduction. */
+        INTERSECTIONS,
+        /** Adds naked and hidden pairs. */
+        PAIRS,
+        /** Adds naked and hidden triples. */
+        TRIPLES;
+
+        /**
+         * Parses a propagation level name, case-insensitive.
+         * @throws IllegalArgumentException If the name does not match a level.
+         */
+        public static Propagation parse(String name) {
+            for (Propagation level : values()) {
+                if (level.name().equalsIgnoreCase(name)) return level;
+            }
+            throw new IllegalArgumentException("Unknown propagation level: " + name);
+        }
+    }
+
+    /**
+     * How a search picks the empty cell to branch on.
+     */
+    public enum CellHeuristic {
+        /** Fewest candidates; ties broken at random. */
+        RANDOM,
+        /** Fewest candidates; the first such cell in board order. */
+        FIRST_MIN,
+        /** Fewest candidates; ties broken by the most empty neighbors (degree). */
+        MRV_DEGREE;
+    }
+
+    /**
+     * The order in which a search tries the candidates of the cell it branches on.
+     */
+    public enum ValueOrder {
+        /** Random order. */
+        RANDOM,
+        /** Smallest digit first. */
+        ASCENDING,
+        /** The digit that appears in the fewest empty neighbors' candidates first. */
+        LEAST_CONSTRAINING;
+    }
+
+    /**
+     * Branching choices for a search: the cell heuristic, the value order, and optionally
+     * a seed for the random choices, making the search reproducible.
+     */
+    public static final class Branching {
+        /** Random tie-breaking and random value order, as searches have always done. */
+        public static final Branching DEFAULT = new Branching(CellHeuristic.RANDOM, ValueOrder.RANDOM);
+
+        public final CellHeuristic cellHeuristic;
+        public final ValueOrder valueOrder;
+        final boolean seeded;
+        final long seed;
+
+        /**
+         * Branching choices with unseeded random choices.
+         */
+        public Branching(CellHeuristic cellHeuristic, ValueOrder valueOrder) {
+            this(cellHeuristic, valueOrder, false, 0L);
+        }
+
+        /**
+         * Branching choices with random choices drawn from a generator with the given seed.
+         */
+        public Branching(CellHeuristic cellHeuristic, ValueOrder valueOrder, long seed) {
+            this(cellHeuristic, valueOrder, true, seed);
+        }
+
+        private Branching(CellHeuristic cellHeuristic, ValueOrder valueOrder, boolean seeded, long seed) {
+            if (cellHeuristic == null || valueOrder == null) {
+                throw new IllegalArgumentException("cellHeuristic and valueOrder must not be null");
+            }
+            this.cellHeuristic = cellHeuristic;
+            this.valueOrder = valueOrder;
+            this.seeded = seeded;
+            this.seed = seed;
+        }
+
+        /** @return True if any choice is random, so a restarted search may take a different path. */
+        boolean isRandomized() {
+            return cellHeuristic == CellHeuristic.RANDOM || valueOrder == ValueOrder.RANDOM;
+        }
+    }
+
+    /**
+     * Restart schedule for the first-solution, exists, count-up-to, and uniqueness searches.
+     * A run that visits more search nodes than its budget is abandoned, and the search starts
+     * over with fresh random choices. Budgets keep growing, so some run eventually completes
+     * and the result is exact. Solutions found by abandoned runs are kept, so a second solution
+     * found on any run settles a uniqueness check.
+     *
+     * Restarts only apply with randomized branching; otherwise every run would be the same.
+     */
+    public static final class Restarts {
+        /** Never restart. */
+        public static final Restarts NONE = new Restarts(Long.MAX_VALUE, 0.0);
+        /** Default number of nodes per unit of the Luby schedule. */
+        public static final long DEFAULT_LUBY_UNIT = 64L;
+        /** Default first budget of the geometric schedule. */
+        public static final long DEFAULT_GEOMETRIC_FIRST = 256L;
+        /** Default growth factor of the geometric schedule. */
+        public static final double DEFAULT_GEOMETRIC_FACTOR = 1.5;
+
+        private final long nodes;
+        /** Growth factor of the geometric schedule; 0 for the Luby schedule. */
+        private final double factor;
+
+        private Restarts(long nodes, double factor) {
+            this.nodes = nodes;
+            this.factor = factor;
+        }
+
+        /**
+         * Luby schedule: budgets of 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, ... times the unit.
+         * @param unitNodes Number of search nodes per unit.
+         */
+        public static Restarts luby(long unitNodes) {
+            if (unitNodes < 1L) throw new IllegalArgumentException("unitNodes must be positive");
+            return new Restarts(unitNodes, 0.0);
+        }
+
+        /**
+         * Geometric schedule: each budget is <code>factor</code> times the last.
+         * @param firstNodes Number of search nodes in the first run.
+         * @param factor Growth factor; must be greater than 1.
+         */
+        public static Restarts geometric(long firstNodes, double factor) {
+            if (firstNodes < 1L) throw new IllegalArgumentException("firstNodes must be positive");
+            if (!(factor > 1.0)) throw new IllegalArgumentException("factor must be greater than 1");
+            return new Restarts(firstNodes, factor);
+        }
+
+        /**
+         * @param name One of "none", "luby", or "geometric" (case-insensitive), with default parameters.
+         */
+        public static Restarts parse(String name) {
+            switch (name.toLowerCase()) {
+                case "none": return NONE;
+                case "luby": return luby(DEFAULT_LUBY_UNIT);
+                case "geometric": return geometric(DEFAULT_GEOMETRIC_FIRST, DEFAULT_GEOMETRIC_FACTOR);
+                default: throw new IllegalArgumentException("Unknown restarts: " + name);
+            }
+        }
+
+        /** @return Node budget of the given run, counting from 0. */
+        long budget(int run) {
+            if (this == NONE) return Long.MAX_VALUE;
+            double multiplier = (factor == 0.0) ? lubyTerm(run + 1) : Math.pow(factor, run);
+            double budget = nodes * multiplier;
+            return (budget >= Long.MAX_VALUE) ? Long.MAX_VALUE : (long) budget;
+        }
+
+        /** The i-th term (from 1) of the Luby sequence. */
+        static long lubyTerm(long i) {
+            while (true) {
+                int k = 1;
+                while ((1L << k) - 1L < i) k++;
+                if ((1L << k) - 1L == i) return 1L << (k - 1);
+                i -= (1L << (k - 1)) - 1L;
+            }
+        }
+    }
+
+    /**
+     * Differently configured searches to race against each other. Each member runs on its own
+     * thread; the first to finish answers, and the rest are cancelled. Different branching and
+     * propagation choices win on different puzzles, so this trades otherwise idle cores for a
+     * lower worst case on a single hard puzzle.
+     */
+    public static final class Portfolio {
+        /**
+         * Random and deterministic minimum-remaining-values branching, with singles propagation,
+         * and two stronger propagation levels.
+         */
+        public static final Portfolio DEFAULT = new Portfolio(List.of(
+            new Member(Branching.DEFAULT, Propagation.SINGLES),
+            new Member(new Branching(CellHeuristic.FIRST_MIN, ValueOrder.ASCENDING), Propagation.SINGLES),
+            new Member(new Branching(CellHeuristic.MRV_DEGREE, ValueOrder.LEAST_CONSTRAINING), Propagation.INTERSECTIONS),
+            new Member(Branching.DEFAULT, Propagation.PAIRS)
+        ));
+
+        /** One search configuration. */
+        public static final class Member {
+            public final Branching branching;
+            public final Propagation propagation;
+
+            public Member(Branching branching, Propagation propagation) {
+                if (branching == null || propagation == null) {
+                    throw new IllegalArgumentException("branching and propagation must not be null");
+                }
+                this.branching = branching;
+                this.propagation = propagation;
+            }
+        }
+
+        public final List<Member> members;
+
+        /**
+         * @param members Search configurations; one thread is used per member.
+         */
+        public Portfolio(List<Member> members) {
+            if (members == null || members.isEmpty()) {
+                throw new IllegalArgumentException("members must not be empty");
+            }
+            this.members = List.copyOf(members);
+        }
+    }
+
+    /**
+     * Runs <code>searchCount</code> under every member of the portfolio at once,
+     * returning the answer of whichever finishes first.
+     */
+    private long race(Portfolio portfolio, long limit, int[] firstSolution) {
+        CancellationToken token = new CancellationToken();
+        List<Callable<int[]>> searches = new ArrayList<>();
+        for (Portfolio.Member member : portfolio.members) {
+            searches.add(() -> {
+                Sudoku puzz = new Sudoku(this);
+                puzz.setBranching(member.branching);
+                puzz.propagation = member.propagation;
+                // The solution, followed by the count.
+                int[] result = new int[SPACES + 1];
+                long count = puzz.searchCount(limit, result, token);
+                // Cancelled searches have no answer; invokeAny only returns successful ones.
+                if (count < 0L) throw new CancellationException();
+                result[SPACES] = (int) count;
+                return result;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(searches.size());
+        try {
+            int[] result = pool.invokeAny(searches);
+            if (firstSolution != null) System.arraycopy(result, 0, firstSolution, 0, SPACES);
+            return result[SPACES];
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("portfolio search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("portfolio search failed", e.getCause());
+        } finally {
+            token.cancel();
+            pool.shutdownNow();
+        }
+    }
+
     /** Cell digits, as one would see on a sudoku board.*/
     int[] digits;
 
@@ -662,6 +964,27 @@ public class Sudoku {
 
     boolean isValid = true;
 
+    /**
+     * (Optional) Undo log for changes to digits, candidates, and constraints.
+     * Only set on the working copy used by a search; never copied.
+     */
+    Trail trail;
+
+    /** Deductions applied by <code>reduce()</code> and during searches. */
+    Propagation propagation = Propagation.SINGLES;
+
+    /** XOR of <code>ZOBRIST</code> keys of the filled cells; maintained by <code>setDigit</code>. */
+    long hash = 0L;
+
+    /** Cell and value choices made by searches. */
+    Branching branching = Branching.DEFAULT;
+
+    /** Restart schedule for the first-solution and uniqueness searches. */
+    Restarts restarts = Restarts.NONE;
+
+    /** Source of random choices for seeded branching; if null, <code>ThreadLocalRandom</code> is used. */
+    SplittableRandom random = null;
+
     // TODO Implement isSolved cache
     // This should be cached true when isSolved is called, and invalidated whenever a value is changed
     boolean isSolved = false;
@@ -675,8 +998,23 @@ public class Sudoku {
 
     public Sudoku(Sudoku other) {
         this();
+        this.propagation = other.propagation;
+        this.branching = other.branching;
+        this.restarts = other.restarts;
+        // Seeded generators are not thread-safe, and copies may be searched on other threads.
+        this.random = (other.random == null) ? null : other.random.split();
+        copyBoard(other);
+    }
+
+    /**
+     * Overwrites this board's digits, candidates, and validity with those of another,
+     * without allocating. Search settings are kept.
+     */
+    final void copyBoard(Sudoku other) {
         this.numEmptyCells = other.numEmptyCells;
         this.isValid = other.isValid;
+        this.hash = other.hash;
+        this.trail = null;
         System.arraycopy(other.digits, 0, this.digits, 0, SPACES);
         System.arraycopy(other.candidates, 0, this.candidates, 0, SPACES);
         System.arraycopy(other.constraints, 0, this.constraints, 0, DIGITS);
@@ -739,8 +1077,14 @@ public class Sudoku {
         int prevDigit = this.digits[ci];
         if (prevDigit == digit) return;
 
+        if (trail != null) {
+            trail.placedAt[ci] = trail.size;
+            trail.record(ci, prevDigit);
+            trail.record(Trail.CANDIDATES + ci, candidates[ci]);
+        }
         digits[ci] = digit;
         candidates[ci] = ENCODER[digit];
+        hash ^= ZOBRIST[ci * (DIGITS + 1) + prevDigit] ^ ZOBRIST[ci * (DIGITS + 1) + digit];
 
         // Digit removed (or replaced)
         if (prevDigit > 0) {
@@ -755,6 +1099,7 @@ public class Sudoku {
     }
 
     void addConstraint(int ci, int digit) {
+        if (trail != null) trail.recordConstraints(this, ci);
         int dMask = ENCODER[digit];
         constraints[CELL_ROWS[ci]] |= dMask << (DIGITS*2);
         constraints[CELL_COLS[ci]] |= dMask << DIGITS;
@@ -762,6 +1107,7 @@ public class Sudoku {
     }
 
     void removeConstraint(int ci, int digit) {
+        if (trail != null) trail.recordConstraints(this, ci);
         int dMask = ENCODER[digit];
         constraints[CELL_ROWS[ci]] &= ~(dMask << (DIGITS*2));
         constraints[CELL_COLS[ci]] &= ~(dMask << DIGITS);
@@ -812,6 +1158,7 @@ public class Sudoku {
         int[] constraints = new int[DIGITS];
         int numEmptyCells = SPACES;
         boolean isValid = true;
+        long hash = 0L;
 
         Snapshot() {}
         Snapshot(Sudoku sudoku) { set(sudoku); }
@@ -824,6 +1171,7 @@ public class Sudoku {
             for (int i = 0; i < DIGITS; i++) this.constraints[i] = sudoku.constraints[i];
             this.numEmptyCells = sudoku.numEmptyCells;
             this.isValid = sudoku.isValid;
+            this.hash = sudoku.hash;
         }
     }
 
@@ -848,6 +1196,80 @@ public class Sudoku {
         for (int i = 0; i < DIGITS; i++) this.constraints[i] = data.constraints[i];
         this.numEmptyCells = data.numEmptyCells;
         this.isValid = data.isValid;
+        this.hash = data.hash;
+    }
+
+    /**
+     * Undo log of (slot, previous value) pairs, recorded as the board is changed.
+     * Slots [0, 81) are digits, [81, 162) are candidates, and [162, 171) are constraints.
+     *
+     * Rolling back to a mark restores only what changed since the mark, so a search
+     * stack only needs to remember one int per node instead of a full Snapshot.
+     */
+    static final class Trail {
+        static final int CANDIDATES = SPACES;
+        static final int CONSTRAINTS = 2 * SPACES;
+
+        int[] entries = new int[1024];
+        int size = 0;
+        /**
+         * Position in the log at which each filled cell got its digit; -1 for cells filled
+         * before the trail was created. Only meaningful for cells that are filled.
+         */
+        final int[] placedAt = new int[SPACES];
+
+        Trail() {
+            Arrays.fill(placedAt, -1);
+        }
+
+        void record(int slot, int prevValue) {
+            if (size + 2 > entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[size++] = slot;
+            entries[size++] = prevValue;
+        }
+
+        /**
+         * Records the constraint words touched when a digit is added to or removed from the given cell.
+         */
+        void recordConstraints(Sudoku sudoku, int ci) {
+            int row = CELL_ROWS[ci];
+            int col = CELL_COLS[ci];
+            int region = CELL_REGIONS[ci];
+            record(CONSTRAINTS + row, sudoku.constraints[row]);
+            if (col != row) record(CONSTRAINTS + col, sudoku.constraints[col]);
+            if (region != row && region != col) record(CONSTRAINTS + region, sudoku.constraints[region]);
+        }
+
+        /**
+         * @return The current position in the log, to later roll back to.
+         */
+        int mark() {
+            return size;
+        }
+
+        /**
+         * Restores all values recorded since the given mark, most recent first.
+         */
+        void rollback(Sudoku sudoku, int mark) {
+            int[] e = entries;
+            int i = size;
+            while (i > mark) {
+                int prevValue = e[--i];
+                int slot = e[--i];
+                if (slot < CANDIDATES) {
+                    sudoku.hash ^= ZOBRIST[slot * (DIGITS + 1) + sudoku.digits[slot]] ^
+                        ZOBRIST[slot * (DIGITS + 1) + prevValue];
+                    sudoku.digits[slot] = prevValue;
+                } else if (slot < CONSTRAINTS) {
+                    sudoku.candidates[slot - CANDIDATES] = prevValue;
+                } else {
+                    sudoku.constraints[slot - CONSTRAINTS] = prevValue;
+                }
+            }
+            size = mark;
+        }
     }
 
     //////////////////////////////////////
@@ -860,15 +1282,14 @@ public class Sudoku {
         isValid = true;
         Arrays.fill(constraints, 0);
         for (int ci = 0; ci < SPACES; ci++) {
-            candidates[ci] = ALL;
             if (digits[ci] > 0) {
-                candidates[ci] = ENCODER[digits[ci]];
-                if ((cellConstraints(ci) & candidates[ci]) > 0) {
+                if ((cellConstraints(ci) & ENCODER[digits[ci]]) > 0) {
                     isValid = false;
                 }
                 addConstraint(ci, digits[ci]);
             }
         }
+        CandidateKernels.get().recomputeCandidates(digits, constraints, candidates);
     }
 
     public boolean isFull() {
@@ -900,149 +1321,347 @@ public class Sudoku {
         return this.isValid;
     }
 
+    /**
+     * Zobrist hash of the board, maintained incrementally as digits are set.
+     * It covers which cells are filled and which digits each row, column, and region holds,
+     * which is everything that determines the number of ways to complete a valid board.
+     * @return 64-bit hash; 0 for an empty board.
+     */
+    public long zobristHash() {
+        return hash;
+    }
+
+    /**
+     * Applies constraints to every empty cell and propagates naked and hidden singles.
+     * If a contradiction is found, <code>isValid</code> is set to false.
+     */
     public void reduce() {
-        for (int i = 0; i < SPACES; i++) reduceCell(i);
+        Worklist worklist = Worklist.local();
+        worklist.clear();
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (digits[ci] == 0) worklist.push(ci);
+        }
+        propagate(worklist);
     }
 
-    void reduceCell(int ci) {
-        if (digits[ci] > 0) return;
+    /**
+     * Propagates the effects of a digit just placed in the given cell to its neighbors.
+     * Assumes the rest of the board was already reduced.
+     */
+    void reduceNeighbors(int ci) {
+        Worklist worklist = Worklist.local();
+        worklist.clear();
+        pushEmptyNeighbors(worklist, ci);
+        propagate(worklist);
+    }
 
-        int originalCandidates = candidates[ci];
-        // If candidate reduces to 0, then the board is invalid.
-        candidates[ci] &= ~cellConstraints(ci);
+    private void pushEmptyNeighbors(Worklist worklist, int ci) {
+        for (int ni : CELL_NEIGHBORS[ci]) {
+            if (digits[ni] == 0) worklist.push(ni);
+        }
+    }
 
-        if (candidates[ci] <= 0) {
-            isValid = false;
-            setDigit(ci, 0);
-            return;
+    /**
+     * Fixed-capacity queue of cells whose candidates may be stale.
+     * Each cell is queued at most once, so 81 slots are enough.
+     */
+    static final class Worklist {
+        private static final ThreadLocal<Worklist> LOCAL = ThreadLocal.withInitial(Worklist::new);
+
+        static Worklist local() {
+            return LOCAL.get();
         }
 
-        // If by applying the constraints, the number of candidates is reduced to 1,
-        // then the cell is solved.
-        if (isDigit(candidates[ci])) {
-            setDigit(ci, DECODER[candidates[ci]]);
-        } else {
-            int uniqueCandidate = getUniqueCandidate(ci);
-            if (uniqueCandidate > 0) {
-                setDigit(ci, DECODER[uniqueCandidate]);
-            } else {
-                // If cell[ci] is not a double, then this next part can be skipped.
-                // if (isCandidatePair(reducedCandidates)) {
-                //     // For each area,
-                //     //    Look for candidate pairs
-                //     //    If found,
-                //     //      Remove the pair of digits from candidates in the area (except the pair of cells)
-                //     int ciRow = CELL_ROWS[ci];
-                //     int ciCol = CELL_COLS[ci];
-                //     int ciRegion = CELL_REGIONS[ci];
-                //     for (int col = 0; col < DIGITS; col++) {
-                //         // Look at row neighbors for a potential pair with ci
-                //         if (col == ciCol) continue; // Skip ci
-                //         int rowNi = DIGITS*ciRow + col;
-                //         if (decode(candidates[rowNi]) > 0) continue;
-                //         if (candidates[rowNi] == candidates[ci]) {
-                //             // Found pair (ci, gi)
-                //             // TODO Maintain a collection of 'seen pairs' and if we've seen this pair, skip processing.
-                //             // console.log(`Found pairs within row, value [ ${reducedCandidates.toString(2)} ] at (${ci}, ${rowNi})`);
-
-                //             for (int ei = 0; ei < DIGITS; ei++) {
-                //                 int ki = DIGITS*ciRow + ei;
-                //                 if (ci == ki || rowNi == ki || digits[ki] > 0) continue;
-                //                 int _before = candidates[ki];
-                //                 int _after = (_before & ~reducedCandidates);
-                //                 if (isDigit(_after)) {
-                //                     setDigit(ki, decode(_after));
-                //                     // console.log(`DIGIT resolved after reducing PAIR [${ki}] ${_before.toString(2)} -> ${decode(_after)}`);
-                //                 } else {
-                //                     candidates[ki] = _after;
-                //                 }
-                //                 if (_after < _before) {
-                //                     for (int ni : CELL_NEIGHBORS[ki]) {
-                //                         if (DECODER[candidates[ni]] == 0) reduceCell(ni);
-                //                     }
-                //                 }
-                //             }
-                //         }
-                //     }
-                // }
-            }
-        }
-
-        if (candidates[ci] < originalCandidates) {
-            for (int n : CELL_NEIGHBORS[ci]) {
-                if (digits[n] == 0) {
-                    reduceCell(n);
-                }
-            }
+        final int[] cells = new int[SPACES];
+        final boolean[] queued = new boolean[SPACES];
+        int head = 0;
+        int size = 0;
+
+        void clear() {
+            while (size > 0) poll();
+            head = 0;
+        }
+
+        void push(int ci) {
+            if (queued[ci]) return;
+            queued[ci] = true;
+            cells[(head + size++) % SPACES] = ci;
+        }
+
+        /** @return The next cell; or -1 if empty. */
+        int poll() {
+            if (size == 0) return -1;
+            int ci = cells[head];
+            head = (head + 1) % SPACES;
+            size--;
+            queued[ci] = false;
+            return ci;
         }
     }
 
-    private void constraintProp() {
-        for (int i = 0; i < SPACES; i++) {
-            _constraintProp(i);
+    /**
+     * Reduces the candidates of queued cells until the queue is empty,
+     * placing naked singles and queueing the neighbors of every placement.
+     * Queued cells are checked even if their candidates are already reduced,
+     * as they are after <code>resetCandidatesAndValidity</code>.
+     * @return False if a cell runs out of candidates.
+     */
+    private boolean drain(Worklist worklist) {
+        int ci;
+        while ((ci = worklist.poll()) >= 0) {
+            if (digits[ci] > 0) continue;
+
+            int originalCandidates = candidates[ci];
+            int reducedCandidates = originalCandidates & ~cellConstraints(ci);
+
+            if (reducedCandidates == 0) {
+                isValid = false;
+                worklist.clear();
+                return false;
+            }
+
+            if (reducedCandidates != originalCandidates) {
+                if (trail != null) trail.record(Trail.CANDIDATES + ci, originalCandidates);
+                candidates[ci] = reducedCandidates;
+            }
+
+            if (isDigit(reducedCandidates)) {
+                setDigit(ci, DECODER[reducedCandidates]);
+                pushEmptyNeighbors(worklist, ci);
+            }
         }
+        return true;
     }
 
-    private void _constraintProp(int ci) {
-        if (digits[ci] > 0) {
-            return;
+    /**
+     * @return The digits (encoded) already placed in the given unit.
+     * Units 0-8 are rows, 9-17 are columns, and 18-26 are regions.
+     */
+    int unitConstraints(int unit) {
+        if (unit < DIGITS) return (constraints[unit] >> (DIGITS*2)) & ALL;
+        if (unit < 2*DIGITS) return (constraints[unit - DIGITS] >> DIGITS) & ALL;
+        return constraints[unit - 2*DIGITS] & ALL;
+    }
+
+    /**
+     * Propagates singles, then applies the deductions enabled by <code>propagation</code>,
+     * cheapest first, until none of them change anything.
+     * @return False (and <code>isValid</code> is set false) if a contradiction is found.
+     */
+    boolean propagate(Worklist worklist) {
+        while (true) {
+            if (!propagateSingles(worklist)) return false;
+            if (propagation == Propagation.SINGLES) return true;
+
+            int changed = applyIntersections(worklist);
+            if (changed == 0 && propagation.compareTo(Propagation.PAIRS) >= 0) {
+                changed = applySubsets(2, worklist);
+            }
+            if (changed == 0 && propagation.compareTo(Propagation.TRIPLES) >= 0) {
+                changed = applySubsets(3, worklist);
+            }
+            if (changed < 0) return false;
+            if (changed == 0) return true;
         }
+    }
 
+    /**
+     * Removes the given candidates from an empty cell, placing its digit if only one remains.
+     * @return False (and <code>isValid</code> is set false) if the cell runs out of candidates.
+     */
+    private boolean eliminate(int ci, int mask, Worklist worklist) {
         int originalCandidates = candidates[ci];
-        // If candidate constraints reduces to 0, then the board is likely invalid.
-        candidates[ci] &= ~cellConstraints(ci);
-        if (candidates[ci] <= 0) {
+        int reducedCandidates = originalCandidates & ~mask;
+        if (reducedCandidates == originalCandidates) return true;
+        if (reducedCandidates == 0) {
             isValid = false;
-            setDigit(ci, 0);
-            return;
+            return false;
         }
 
-        // If by applying the constraints, the number of candidates is reduced to 1,
-        // then the cell is solved.
-        if (isDigit(candidates[ci])) {
-            setDigit(ci, DECODER[candidates[ci]]);
+        if (trail != null) trail.record(Trail.CANDIDATES + ci, originalCandidates);
+        candidates[ci] = reducedCandidates;
+        if (isDigit(reducedCandidates)) {
+            setDigit(ci, DECODER[reducedCandidates]);
+            pushEmptyNeighbors(worklist, ci);
         }
+        return true;
+    }
 
-        if (candidates[ci] < originalCandidates) {
-            for (int n : CELL_NEIGHBORS[ci]) {
-                if (digits[n] == 0) {
-                    _constraintProp(n);
+    /**
+     * Pointing pairs (a region's candidates for a digit all lie in one row or column)
+     * and box-line reduction (a row or column's candidates for a digit all lie in one region).
+     * @return Number of cells changed; or -1 if a contradiction is found.
+     */
+    private int applyIntersections(Worklist worklist) {
+        int changed = 0;
+
+        // Pointing
+        for (int region = 0; region < DIGITS; region++) {
+            for (int candidate : CANDIDATES[ALL & ~unitConstraints(2*DIGITS + region)]) {
+                if ((unitConstraints(2*DIGITS + region) & candidate) > 0) continue;
+                int rows = 0;
+                int cols = 0;
+                for (int ci : REGION_INDICES[region]) {
+                    if (digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                        rows |= 1 << CELL_ROWS[ci];
+                        cols |= 1 << CELL_COLS[ci];
+                    }
+                }
+                if (BIT_COUNT_MAP[rows] == 1) {
+                    for (int ci : ROW_INDICES[Integer.numberOfTrailingZeros(rows)]) {
+                        if (CELL_REGIONS[ci] != region && digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                            if (!eliminate(ci, candidate, worklist)) return -1;
+                            changed++;
+                        }
+                    }
+                }
+                if (BIT_COUNT_MAP[cols] == 1) {
+                    for (int ci : COL_INDICES[Integer.numberOfTrailingZeros(cols)]) {
+                        if (CELL_REGIONS[ci] != region && digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                            if (!eliminate(ci, candidate, worklist)) return -1;
+                            changed++;
+                        }
+                    }
                 }
             }
         }
-    }
 
-    int getUniqueCandidate(int ci) {
-        for (int candidate : CANDIDATES[candidates[ci]]) {
-            boolean unique = true;
-            for (int ni : ROW_NEIGHBORS[ci]) {
-                if ((candidates[ni] & candidate) > 0) {
-                    unique = false;
-                    break;
+        // Box-line
+        for (int line = 0; line < 2*DIGITS; line++) {
+            int[] lineCells = UNIT_INDICES[line];
+            for (int candidate : CANDIDATES[ALL & ~unitConstraints(line)]) {
+                if ((unitConstraints(line) & candidate) > 0) continue;
+                int regions = 0;
+                for (int ci : lineCells) {
+                    if (digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                        regions |= 1 << CELL_REGIONS[ci];
+                    }
+                }
+                if (BIT_COUNT_MAP[regions] != 1) continue;
+                for (int ci : REGION_INDICES[Integer.numberOfTrailingZeros(regions)]) {
+                    boolean inLine = (line < DIGITS) ? (CELL_ROWS[ci] == line) : (CELL_COLS[ci] == line - DIGITS);
+                    if (!inLine && digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                        if (!eliminate(ci, candidate, worklist)) return -1;
+                        changed++;
+                    }
                 }
             }
-            if (unique) return candidate;
+        }
+
+        return changed;
+    }
 
-            unique = true;
-            for (int ni : COL_NEIGHBORS[ci]) {
-                if ((candidates[ni] & candidate) > 0) {
-                    unique = false;
-                    break;
+    /**
+     * Naked and hidden subsets of the given size, for every unit.
+     * For each combination of <code>size</code> unplaced digits, if exactly <code>size</code>
+     * cells are limited to those digits (naked), the digits are removed from the unit's other cells.
+     * If exactly <code>size</code> cells can hold any of those digits (hidden), those cells are
+     * limited to the combination.
+     * @return Number of cells changed; or -1 if a contradiction is found.
+     */
+    private int applySubsets(int size, Worklist worklist) {
+        int changed = 0;
+        for (int unit = 0; unit < UNITS; unit++) {
+            int[] unitCells = UNIT_INDICES[unit];
+            for (int combo : DIGIT_COMBOS_MAP[size]) {
+                // Placements made by earlier eliminations must be accounted for.
+                int placedDigits = unitConstraints(unit);
+                if (BIT_COUNT_MAP[ALL & ~placedDigits] <= size) break;
+                if ((combo & placedDigits) > 0) continue;
+
+                int naked = 0;
+                int hidden = 0;
+                for (int ci : unitCells) {
+                    if (digits[ci] == 0) {
+                        int c = candidates[ci];
+                        if ((c & ~combo) == 0) naked++;
+                        if ((c & combo) > 0) hidden++;
+                    }
+                }
+
+                if (naked > size || hidden < size) {
+                    isValid = false;
+                    return -1;
                 }
-            }
-            if (unique) return candidate;
 
-            unique = true;
-            for (int ni : REGION_NEIGHBORS[ci]) {
-                if ((candidates[ni] & candidate) > 0) {
-                    unique = false;
-                    break;
+                if (naked == size) {
+                    for (int ci : unitCells) {
+                        int c = candidates[ci];
+                        if (digits[ci] == 0 && (c & ~combo) > 0 && (c & combo) > 0) {
+                            if (!eliminate(ci, combo, worklist)) return -1;
+                            changed++;
+                        }
+                    }
+                } else if (hidden == size) {
+                    for (int ci : unitCells) {
+                        int c = candidates[ci];
+                        if (digits[ci] == 0 && (c & combo) > 0 && (c & ~combo) > 0) {
+                            if (!eliminate(ci, ALL & ~combo, worklist)) return -1;
+                            changed++;
+                        }
+                    }
                 }
             }
-            if (unique) return candidate;
         }
+        return changed;
+    }
+
+    /**
+     * Propagates naked singles through the worklist, then looks for hidden singles
+     * unit by unit, until neither finds anything new.
+     *
+     * Hidden singles are found with two accumulators over a unit's empty cells:
+     * <code>once</code> collects every candidate seen, and <code>twice</code> collects
+     * candidates seen more than once. Digits in <code>once & ~twice</code> have a single home.
+     * @return False (and <code>isValid</code> is set false) if a contradiction is found.
+     */
+    private boolean propagateSingles(Worklist worklist) {
+        if (!drain(worklist)) return false;
+
+        boolean placed = true;
+        while (placed) {
+            placed = false;
+            for (int unit = 0; unit < UNITS; unit++) {
+                int[] unitCells = UNIT_INDICES[unit];
+                int placedDigits = unitConstraints(unit);
+                if (placedDigits == ALL) continue;
+
+                int once = 0;
+                int twice = 0;
+                for (int ci : unitCells) {
+                    if (digits[ci] == 0) {
+                        int c = candidates[ci];
+                        twice |= once & c;
+                        once |= c;
+                    }
+                }
+
+                // Some digit can no longer be placed anywhere in the unit.
+                if ((once | placedDigits) != ALL) {
+                    isValid = false;
+                    return false;
+                }
 
-        return 0;
+                int hidden = once & ~twice & ~placedDigits;
+                if (hidden == 0) continue;
+
+                // If two hidden digits share a cell, only the first is placed;
+                // the other is then missing from the unit, caught on the next pass.
+                for (int candidate : CANDIDATES[hidden]) {
+                    for (int ci : unitCells) {
+                        if (digits[ci] == 0 && (candidates[ci] & candidate) > 0) {
+                            setDigit(ci, DECODER[candidate]);
+                            pushEmptyNeighbors(worklist, ci);
+                            break;
+                        }
+                    }
+                }
+
+                placed = true;
+                if (!drain(worklist)) return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -1068,6 +1687,19 @@ public class Sudoku {
         return Sudoku.generatePuzzle(this, numClues, sieve, difficulty, timeoutMs, useSieve);
     }
 
+    /** Weight of the latest outcome in <code>generatePuzzle</code>'s running false-pass rate of the sieve. */
+    static final double SIEVE_RATE_WEIGHT = 1.0 / 64;
+    /**
+     * Share of masks passed by the sieve that still have another solution, above which
+     * <code>generatePuzzle</code> seeds the sieve with the next level of
+     * <code>SudokuSieve.fullPrintCombos</code>.
+     */
+    static final double SIEVE_SEED_RATE = 0.9;
+    /** Highest level of <code>SudokuSieve.fullPrintCombos</code> that <code>generatePuzzle</code> seeds. */
+    static final int SIEVE_SEED_MAX_LEVEL = 3;
+    /** Number of masks whose uniqueness <code>generatePuzzle</code> remembers. */
+    static final int MASK_MEMO_SIZE = 4096;
+
     /**
      * Generates a puzzle.
      * If numClues is less than the minimum 17, returns null.
@@ -1076,7 +1708,7 @@ public class Sudoku {
      * @param sieve A list of SudokuMask to use as a sieve of unavoidable sets.
      * @param difficulty From 0 to 4.
      * @param timeoutMs Amount of system time(ms) to spend generating. 0 for no limit.
-     * @param useSieve Whether a sieve may be seeded progressively at certain points.
+     * @param useSieve Whether the sieve may be seeded with more levels when it passes too many non-unique masks.
      * @return A new Sudoku instance (the puzzle); or null if the time limit is exceeded.
      * @throws IllegalArgumentException If a populated sieve is given without a grid;
      * if a grid is given but is invalid or not full;
@@ -1090,23 +1722,42 @@ public class Sudoku {
         long timeoutMs,
         boolean useSieve
     ) {
-        if (numClues < MIN_CLUES)
-            return null;
-        if (sieve != null && grid == null)
-            throw new IllegalArgumentException("Sieve provided without grid");
-        if (grid == null)
-            grid = configSeed().solution();
+        CancellationToken token = (timeoutMs > 0L) ? CancellationToken.withTimeout(timeoutMs) : null;
+        return generatePuzzle(grid, numClues, sieve, difficulty, token, useSieve);
+    }
+
+    /**
+     * Generates a puzzle as <code>generatePuzzle(grid, numClues, sieve, difficulty, timeoutMs, useSieve)</code>,
+     * stopping when the token is cancelled instead of after a fixed time.
+     * @param token (Optional) Polled periodically; null for no limit.
+     * @return A new Sudoku instance (the puzzle); or null if cancelled first.
+     */
+    public static Sudoku generatePuzzle(
+        Sudoku grid,
+        int numClues,
+        SudokuSieve sieve,
+        int difficulty,
+        CancellationToken token,
+        boolean useSieve
+    ) {
+        if (numClues < MIN_CLUES)
+            return null;
+        if (sieve != null && grid == null)
+            throw new IllegalArgumentException("Sieve provided without grid");
+        if (grid == null)
+            grid = configSeed().solution();
         if (!grid.isSolved())
             throw new IllegalArgumentException("Solution grid is invalid");
         if (numClues >= SPACES)
             return grid;
         if (difficulty < 0 || difficulty > 4)
             throw new IllegalArgumentException(String.format("Invalid difficulty (%d); expected 0 <= difficulty <= 4", difficulty));
-        if (sieve == null)
+        // Background seeding of a sieve only this call can see is stopped on return.
+        boolean ownSieve = (sieve == null);
+        if (ownSieve)
             sieve = new SudokuSieve(grid);
 
         ThreadLocalRandom rand = ThreadLocalRandom.current();
-        long start = System.currentTimeMillis();
         // const FULLMASK = (1n << BigInt(SPACES)) - 1n;
         // SudokuMask FULLMASK = SudokuMask.full();
         int maskFails = 0;
@@ -1117,8 +1768,18 @@ public class Sudoku {
         ArrayList<Integer> removed = new ArrayList<>();
         int[] indices = ArraysUtil.shuffle(ArraysUtil.range(SPACES));
         int choices = 0;
+        int[] witness = new int[SPACES];
+        // Put-backs lead back to masks, and supersets of masks, already checked.
+        MaskMemo memo = new MaskMemo(MASK_MEMO_SIZE);
+        // Running rate at which masks the sieve passes still have another solution.
+        double falsePassRate = 0.0;
+        int seedLevel = 2;
 
         while (remaining.size() > numClues) {
+            if (token != null && token.isCancelled()) {
+                if (ownSieve) sieve.cancelSeeding();
+                return null;
+            }
             int startChoices = remaining.size();
             ArraysUtil.shuffle(remaining);
             for (int i = 0; i < remaining.size() && remaining.size() > numClues; i++) {
@@ -1136,8 +1797,9 @@ public class Sudoku {
                     mask.setBit(choice);
 
                     // Once in awhile, check the time
-                    if (timeoutMs > 0L && maskFails == 100) {
-                        if ((System.currentTimeMillis() - start) > timeoutMs) {
+                    if (token != null && maskFails == 100) {
+                        if (token.isCancelled()) {
+                            if (ownSieve) sieve.cancelSeeding();
                             return null;
                         }
                         maskFails -= 100;
@@ -1146,19 +1808,37 @@ public class Sudoku {
                     continue;
                 }
 
-                if (grid.filter(mask).solutionsFlag() != 1) {
-                    puzzleCheckFails++;
-                    if (useSieve && puzzleCheckFails == 100 && sieve.size() < 100) {
-                        sieve.seedThreaded(sieve.fullPrintCombos(2));
-                    } else if (useSieve && puzzleCheckFails == 2000 && sieve.size() < 1000) {
-                        sieve.seedThreaded(sieve.fullPrintCombos(3));
-                    } else if (useSieve && puzzleCheckFails > 10_000 && sieve.size() < 10_000) {
-                        sieve.addFromPuzzleMask(mask);
+                int known = memo.get(mask);
+                // The mask solved uniquely before this cell was removed.
+                boolean falsePass = (known == MaskMemo.NOT_UNIQUE) ||
+                    (known == MaskMemo.UNKNOWN && hasAlternativeSolution(grid, mask, choice, witness));
+                if (falsePass) {
+                    falsePassRate += SIEVE_RATE_WEIGHT * (1.0 - falsePassRate);
+                    if (known == MaskMemo.UNKNOWN) {
+                        memo.put(mask, false);
+                        puzzleCheckFails++;
+                        // The other solution shows an unavoidable set the mask misses;
+                        // with it in the sieve, masks that miss it are rejected without solving.
+                        sieve.addFromSolution(witness);
+                    }
+                    // Harvesting is no longer keeping up: seed the next level, in the background,
+                    // while the sieve keeps being used as it grows. The rate is then measured
+                    // afresh, so the level after is only seeded if this one did not help.
+                    if (
+                        useSieve &&
+                        seedLevel <= SIEVE_SEED_MAX_LEVEL &&
+                        falsePassRate > SIEVE_SEED_RATE &&
+                        !sieve.isSeeding()
+                    ) {
+                        sieve.seedInBackground(seedLevel++);
+                        falsePassRate = 0.0;
                     }
 
                     mask.setBit(choice);
                     continue;
                 }
+                falsePassRate -= SIEVE_RATE_WEIGHT * falsePassRate;
+                if (known == MaskMemo.UNKNOWN) memo.put(mask, true);
 
                 removed.add(choice);
                 remaining.remove(i);
@@ -1171,7 +1851,7 @@ public class Sudoku {
             (
                 remaining.size() == numClues &&
                 difficulty > 0 &&
-                grid.filter(mask).solutionsFlag() == 1 //&&
+                (memo.get(mask) == MaskMemo.UNIQUE || !hasAlternativeSolution(grid, mask)) //&&
                 // grid.filter(mask).difficulty() != difficulty
             ) || remaining.size() == startChoices
             ) {
@@ -1188,9 +1868,167 @@ public class Sudoku {
             }
         }
 
+        if (ownSieve) sieve.cancelSeeding();
         return grid.filter(mask);
     }
 
+    /**
+     * Races independent removal orders of the same grid on several threads, returning the
+     * first puzzle found. See <code>racePuzzles</code>.
+     * @return A new Sudoku instance (the puzzle); or null if the time limit is exceeded.
+     */
+    public static Sudoku racePuzzle(Sudoku grid, int numClues, int numThreads, int difficulty, long timeoutMs) {
+        List<Sudoku> puzzles = racePuzzles(grid, numClues, 1, numThreads, difficulty, timeoutMs);
+        return puzzles.isEmpty() ? null : puzzles.get(0);
+    }
+
+    /**
+     * Generates distinct puzzles for one grid by racing independent removal orders on
+     * several threads. At low clue counts the time a single order takes varies widely,
+     * so the first of several tends to finish much sooner than any one of them.
+     *
+     * All threads share one sieve, so the unavoidable sets each finds spare the others
+     * the same checks. Each thread starts a new order whenever one finishes; all stop
+     * once <code>numPuzzles</code> distinct puzzles are found or the time runs out.
+     * @param grid (Optional) The solution. If provided, must be full and valid.
+     * @param numClues Number of clues.
+     * @param numPuzzles Number of distinct puzzles to find.
+     * @param numThreads Number of removal orders to run at once.
+     * @param difficulty From 0 to 4.
+     * @param timeoutMs Amount of system time(ms) to spend generating. 0 for no limit.
+     * @return The puzzles in the order found; fewer than <code>numPuzzles</code> if the time
+     * limit is exceeded. Empty if numClues is less than the minimum 17.
+     * @throws IllegalArgumentException If a grid is given but is invalid or not full;
+     * if difficulty is out of range; if numPuzzles or numThreads is less than 1.
+     */
+    public static List<Sudoku> racePuzzles(
+        Sudoku grid,
+        int numClues,
+        int numPuzzles,
+        int numThreads,
+        int difficulty,
+        long timeoutMs
+    ) {
+        if (numPuzzles < 1)
+            throw new IllegalArgumentException("numPuzzles must be positive");
+        if (numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be positive");
+        if (difficulty < 0 || difficulty > 4)
+            throw new IllegalArgumentException(String.format("Invalid difficulty (%d); expected 0 <= difficulty <= 4", difficulty));
+        if (numClues < MIN_CLUES)
+            return new ArrayList<>();
+        if (grid == null)
+            grid = configSeed().solution();
+        if (!grid.isSolved())
+            throw new IllegalArgumentException("Solution grid is invalid");
+        if (numClues >= SPACES)
+            return new ArrayList<>(List.of(grid));
+
+        Sudoku _grid = grid;
+        SudokuSieve sieve = new SudokuSieve(grid);
+        CancellationToken token = (timeoutMs > 0L) ? CancellationToken.withTimeout(timeoutMs) : new CancellationToken();
+        // Keyed by puzzle string, in the order found.
+        Map<String, Sudoku> found = new LinkedHashMap<>();
+        List<Callable<Void>> racers = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            racers.add(() -> {
+                while (!token.isCancelled()) {
+                    Sudoku puzzle = generatePuzzle(_grid, numClues, sieve, difficulty, token, true);
+                    if (puzzle == null) break;
+                    synchronized (found) {
+                        if (found.size() < numPuzzles) found.putIfAbsent(puzzle.toString(), puzzle);
+                        if (found.size() == numPuzzles) token.cancel();
+                    }
+                }
+                return null;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (Future<Void> racer : pool.invokeAll(racers)) racer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("puzzle race interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("puzzle race failed", e.getCause());
+        } finally {
+            token.cancel();
+            pool.shutdownNow();
+            sieve.cancelSeeding();
+        }
+
+        synchronized (found) {
+            return new ArrayList<>(found.values());
+        }
+    }
+
+    /**
+     * Checks whether the puzzle made of the grid's digits in the mask's cells has a solution
+     * other than the grid. Equivalent to <code>grid.filter(mask).solutionsFlag() != 1</code>,
+     * but only searches for solutions that differ from the grid.
+     *
+     * Empty cells are taken one at a time, fewest candidates first. Each is checked for a
+     * solution with a different digit there, and then filled with the grid's digit, so no
+     * solution is looked for twice, and the grid itself is never searched for.
+     * @param grid The known solution. Must be full and valid.
+     * @param mask Cells of the grid kept as clues.
+     * @return True if the puzzle has more than one solution.
+     * @throws IllegalArgumentException If the grid is invalid or not full.
+     */
+    public static boolean hasAlternativeSolution(Sudoku grid, SudokuMask mask) {
+        return hasAlternativeSolution(grid, mask, null);
+    }
+
+    /**
+     * See <code>hasAlternativeSolution(Sudoku, SudokuMask)</code>.
+     * @param witness (Optional) Receives the other solution, if there is one.
+     */
+    public static boolean hasAlternativeSolution(Sudoku grid, SudokuMask mask, int[] witness) {
+        if (!grid.isSolved()) throw new IllegalArgumentException("Solution grid is invalid");
+        return BitboardSolver.local().hasAlternative(grid.maskedDigits(mask), grid.digits, witness);
+    }
+
+    /**
+     * Checks whether the puzzle made of the grid's digits in the mask's cells has a solution
+     * other than the grid, given that it has only the one with <code>removedCell</code> added
+     * back as a clue. Any other solution must then differ in that cell, so only solutions that
+     * do are searched for.
+     *
+     * That the mask with the cell added back solves uniquely is not checked; if it doesn't,
+     * other solutions may be missed. Hence package-private, for <code>generatePuzzle</code>,
+     * which only removes cells from masks already known to solve uniquely.
+     * @param grid The known solution. Must be full and valid.
+     * @param mask Cells of the grid kept as clues.
+     * @param removedCell Cell just removed from the mask, whose puzzle solves uniquely.
+     * @return True if the puzzle has more than one solution.
+     * @throws IllegalArgumentException If the grid is invalid or not full; if the cell is in the mask.
+     */
+    static boolean hasAlternativeSolution(Sudoku grid, SudokuMask mask, int removedCell) {
+        return hasAlternativeSolution(grid, mask, removedCell, null);
+    }
+
+    /**
+     * See <code>hasAlternativeSolution(Sudoku, SudokuMask, int)</code>.
+     * @param witness (Optional) Receives the other solution, if there is one.
+     */
+    static boolean hasAlternativeSolution(Sudoku grid, SudokuMask mask, int removedCell, int[] witness) {
+        if (!grid.isSolved()) throw new IllegalArgumentException("Solution grid is invalid");
+        if (removedCell < 0 || removedCell >= SPACES || mask.testBit(removedCell)) {
+            throw new IllegalArgumentException("removedCell must be a cell outside the mask");
+        }
+        return BitboardSolver.local().hasAlternative(grid.maskedDigits(mask), grid.digits, removedCell, witness);
+    }
+
+    /** @return This board's digits in the mask's cells; 0 elsewhere. */
+    private int[] maskedDigits(SudokuMask mask) {
+        int[] result = new int[SPACES];
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (mask.testBit(ci)) result[ci] = digits[ci];
+        }
+        return result;
+    }
+
     private static class SudokuNode {
         Sudoku sudoku;
         int index = -1;
@@ -1209,10 +2047,9 @@ public class Sudoku {
             if (values <= 0 || !sudoku.isValid) return null;
 
             Sudoku s = new Sudoku(sudoku);
-            int[] candidateDigits = CANDIDATES_ARR[values];
-            int randomCandidateDigit = candidateDigits[ThreadLocalRandom.current().nextInt(candidateDigits.length)];
-            s.setDigit(index, randomCandidateDigit);
-            values &= ~(ENCODER[randomCandidateDigit]);
+            int digit = sudoku.pickDigit(index, values);
+            s.setDigit(index, digit);
+            values &= ~(ENCODER[digit]);
             return new SudokuNode(s);
         }
         boolean hasNext() {
@@ -1220,19 +2057,33 @@ public class Sudoku {
         }
     }
 
+    /**
+     * Search node that restores state by rolling back the sudoku's trail to a mark,
+     * rather than copying a Snapshot of the whole board.
+     */
     private static class ANode {
-        Snapshot snapshot = new Snapshot();
+        int trailMark = 0;
+        int numEmptyCells = SPACES;
+        boolean isValid = true;
         int emptyCi = -1;
         int emptyCandidates = -1;
 
         ANode() {}
 
         void set(Sudoku sudoku) {
-            snapshot.set(sudoku);
+            trailMark = sudoku.trail.mark();
+            numEmptyCells = sudoku.numEmptyCells;
+            isValid = sudoku.isValid;
             emptyCi = sudoku.pickEmptyCell();
             emptyCandidates = -1;
             if (!sudoku.isValid) return;
-            emptyCandidates = (snapshot.isValid && emptyCi > -1) ? snapshot.candidates[emptyCi] : -1;
+            emptyCandidates = (emptyCi > -1) ? sudoku.candidates[emptyCi] : -1;
+        }
+
+        void restore(Sudoku sudoku) {
+            sudoku.trail.rollback(sudoku, trailMark);
+            sudoku.numEmptyCells = numEmptyCells;
+            sudoku.isValid = isValid;
         }
 
         boolean loadNext(Sudoku sudoku) {
@@ -1241,19 +2092,12 @@ public class Sudoku {
             }
 
             do {
-                sudoku.loadFromSnapshot(snapshot);
-                int[] candidateDigits = CANDIDATES_ARR[emptyCandidates];
-
-                int randomCandidateDigit = candidateDigits[ThreadLocalRandom.current().nextInt(candidateDigits.length)];
-                // int randomCandidateDigit = candidateDigits[candidateDigits.length - 1];
+                restore(sudoku);
+                int digit = sudoku.pickDigit(emptyCi, emptyCandidates);
+                sudoku.setDigit(emptyCi, digit);
+                emptyCandidates -= ENCODER[digit];
 
-                sudoku.setDigit(emptyCi, randomCandidateDigit);
-                emptyCandidates -= ENCODER[randomCandidateDigit];
-
-                // sudoku.reduce();
-                for (int ni : CELL_NEIGHBORS[emptyCi]) {
-                    if (sudoku.digits[ni] == 0) sudoku.reduceCell(ni);
-                }
+                sudoku.reduceNeighbors(emptyCi);
 
             } while (emptyCandidates > 0 && !sudoku.isValid);
 
@@ -1261,25 +2105,59 @@ public class Sudoku {
         }
     }
 
-    public void searchForSolutions3(Function<Sudoku,Boolean> solutionCallback) {
+    /**
+     * Searches for solutions depth-first, handing each to the callback until it returns false.
+     * @param solutionCallback Receives a copy of each solution; returns whether to keep searching.
+     * @return Number of search nodes (branching points) visited.
+     */
+    public long searchForSolutions3(Function<Sudoku,Boolean> solutionCallback) {
+        return searchForSolutions3(solutionCallback, (CancellationToken) null);
+    }
+
+    /**
+     * Searches for solutions depth-first, handing each to the callback until it returns false,
+     * or until the token is cancelled. The token is polled at every search node.
+     * @param solutionCallback Receives a copy of each solution; returns whether to keep searching.
+     * @param token (Optional) Cancellation token or deadline.
+     * @return Number of search nodes (branching points) visited.
+     */
+    public long searchForSolutions3(Function<Sudoku,Boolean> solutionCallback, CancellationToken token) {
+        return searchForSolutions3(solutionCallback, token, null);
+    }
+
+    /**
+     * See <code>searchForSolutions3(Function, CancellationToken)</code>.
+     * @param stoppedEarly (Optional) Set if the search stops because the token was cancelled.
+     */
+    private long searchForSolutions3(
+        Function<Sudoku,Boolean> solutionCallback,
+        CancellationToken token,
+        AtomicBoolean stoppedEarly
+    ) {
         Sudoku puzz = new Sudoku(this);
         puzz.resetCandidatesAndValidity();
         puzz.reduce();
+        puzz.trail = new Trail();
 
         // If we can stop early then GREAT!
-        if (!puzz.isValid) return;
+        if (!puzz.isValid) return 0L;
         if (puzz.isSolved()) {
             solutionCallback.apply(puzz);
-            return;
+            return 0L;
         }
 
         ANode[] stack = new ANode[puzz.numEmptyCells];
         for (int i = 0; i < stack.length; i++) stack[i] = new ANode();
         stack[0].set(puzz);
-        stack[0].loadNext(puzz);
+        if (!stack[0].loadNext(puzz)) return 1L;
         int curStackIndex = 0;
+        long nodes = 1L;
 
         while (curStackIndex > -1) {
+            if (token != null && token.isCancelled()) {
+                if (stoppedEarly != null) stoppedEarly.set(true);
+                break;
+            }
             // NOTE: puzz state is modified by ANodes -- it will be kept in sync with the stack top.
             if (!puzz.isValid) {
                 // While top does NOT have a valid alternative, POP off the stack.
@@ -1292,11 +2170,65 @@ public class Sudoku {
             } else {
                 // Valid but not solved, PUSH to the stack.
                 curStackIndex++;
+                nodes++;
                 // Copy puzz state into node, then find/load the next valid state.
                 stack[curStackIndex].set(puzz);
-                stack[curStackIndex].loadNext(puzz);
+                if (!stack[curStackIndex].loadNext(puzz)) {
+                    // No digit fits the chosen cell; backtrack instead of pushing past it.
+                    while (curStackIndex > -1 && !stack[curStackIndex].loadNext(puzz)) curStackIndex--;
+                }
             }
         }
+
+        return nodes;
+    }
+
+    /**
+     * Searches for solutions using the given engine, handing each to the callback until it returns false.
+     * The bitboard engine does not enumerate; it searches with the default engine instead.
+     * @param engine The search engine to use.
+     * @param solutionCallback Receives each solution; returns whether to keep searching.
+     */
+    public void searchForSolutions(Engine engine, Function<Sudoku,Boolean> solutionCallback) {
+        if (engine != Engine.DLX) {
+            searchForSolutions3(solutionCallback);
+            return;
+        }
+        DlxSolver solver = DlxSolver.local();
+        if (solver.load(digits)) {
+            solver.search(Long.MAX_VALUE, board -> solutionCallback.apply(new Sudoku(board)));
+        }
+    }
+
+    /**
+     * Searches for solutions with the given branching choices.
+     * See <code>searchForSolutions3(Function)</code>.
+     * @return Number of search nodes (branching points) visited.
+     */
+    public long searchForSolutions3(Function<Sudoku,Boolean> solutionCallback, Branching branching) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.setBranching(branching);
+        return puzz.searchForSolutions3(solutionCallback);
+    }
+
+    /**
+     * Sets the branching choices used by searches of this board, and of boards copied from it.
+     * A seeded branching starts a new generator from its seed.
+     */
+    void setBranching(Branching branching) {
+        this.branching = branching;
+        this.random = branching.seeded ? new SplittableRandom(branching.seed) : null;
+    }
+
+    /**
+     * Searches for solutions with the given deduction strength.
+     * See <code>searchForSolutions3(Function)</code>.
+     * @return Number of search nodes (branching points) visited.
+     */
+    public long searchForSolutions3(Function<Sudoku,Boolean> solutionCallback, Propagation propagation) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.propagation = propagation;
+        return puzz.searchForSolutions3(solutionCallback);
     }
 
     /**
@@ -1331,6 +2263,68 @@ public class Sudoku {
         return count;
     }
 
+    /**
+     * Counts the puzzle's solutions, using the given branching choices.
+     * @param branching Cell heuristic and value order.
+     * @return Number of solutions.
+     */
+    public long countSolutions(Branching branching) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.setBranching(branching);
+        return puzz.countSolutions();
+    }
+
+    /**
+     * Counts the puzzle's solutions, reducing candidates with the given deduction strength.
+     * @param propagation Deductions to apply at each search node.
+     * @return Number of solutions.
+     */
+    public long countSolutions(Propagation propagation) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.propagation = propagation;
+        return puzz.countSolutions();
+    }
+
+    /**
+     * Counts the puzzle's solutions, using the given engine.
+     * This may take a very long time if the puzzle is sparse.
+     * @param engine The search engine to use.
+     * @return Number of solutions.
+     */
+    public long countSolutions(Engine engine) {
+        if (engine == Engine.BITBOARD) {
+            return BitboardSolver.local().countSolutions(digits, Long.MAX_VALUE, null);
+        }
+        if (engine == Engine.DLX) {
+            return DlxSolver.local().countSolutions(digits, Long.MAX_VALUE, null);
+        }
+        return countSolutions();
+    }
+
+    /**
+     * Counts the puzzle's solutions band by band. See <code>countSolutionsByBands(int)</code>.
+     */
+    public BigInteger countSolutionsByBands() {
+        return countSolutionsByBands(1);
+    }
+
+    /**
+     * Counts the puzzle's solutions band by band, without enumerating them.
+     * Completions of the top band are grouped by the digits they leave in each column,
+     * and the bands below are counted once per group.
+     * Suited to puzzles with too many solutions to count one at a time; for puzzles with
+     * few solutions, <code>countSolutions()</code> is faster.
+     * @param numThreads Number of threads used to count the lower bands.
+     * @return Number of solutions.
+     */
+    public BigInteger countSolutionsByBands(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive");
+        Sudoku copy = new Sudoku(this);
+        copy.resetCandidatesAndValidity();
+        if (!copy.isValid) return BigInteger.ZERO;
+        return new BandCounter(digits).count(numThreads);
+    }
+
     /**
      * Finds all solutions to this sudoku, using the given number of threads.
      * Blocks until all  are found, or until the specified amount of time has elapsed.
@@ -1350,6 +2344,9 @@ public class Sudoku {
 
         Sudoku root = new Sudoku(this);
         root.resetCandidatesAndValidity();
+        CancellationToken token = CancellationToken.withTimeout(timeoutMs);
+        // The deadline may pass after every worker has finished; only a worker that stopped counts.
+        AtomicBoolean stoppedEarly = new AtomicBoolean();
 
         Queue<SudokuNode> q = new LinkedList<>();
         q.offer(new SudokuNode(root));
@@ -1378,17 +2375,21 @@ public class Sudoku {
                 node.sudoku.searchForSolutions3(solution -> {
                     solutionCallback.accept(solution);
                     return true;
-                });
+                }, token, stoppedEarly);
             });
         }
 
         pool.shutdown();
         try {
-            return pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+            if (pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                return !stoppedEarly.get();
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
-            pool.shutdownNow();
         }
+        // Timed out or interrupted: workers poll the token and stop at their next search node.
+        token.cancel();
+        pool.shutdownNow();
         return false;
     }
 
@@ -1446,79 +2447,709 @@ public class Sudoku {
             return result;
         }
 
-        private void findNext() {
-            next = null;
-            while (!stack.isEmpty()) {
-                SudokuNode node = stack.peek();
-                if (node.sudoku.isSolved()) {
-                    next = node.sudoku;
-                    stack.pop();
-                    return;
-                } else if (node.hasNext()) {
-                    stack.push(node.next());
-                } else {
-                    stack.pop();
-                }
+        private void findNext() {
+            next = null;
+            while (!stack.isEmpty()) {
+                SudokuNode node = stack.peek();
+                if (node.sudoku.isSolved()) {
+                    next = node.sudoku;
+                    stack.pop();
+                    return;
+                } else if (node.hasNext()) {
+                    stack.push(node.next());
+                } else {
+                    stack.pop();
+                }
+            }
+        }
+
+        @Override
+        public Iterator<Sudoku> iterator() {
+            return this;
+        }
+    }
+
+    /**
+     * Counts the number of solutions to this sudoku with the given number of threads.
+     * Even with multiple threads, a very sparse puzzle may take a long time.
+     */
+    public long countSolutionsAsync(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive");
+
+        AtomicLong count = new AtomicLong();
+
+        Sudoku root = new Sudoku(this);
+        // Ensure candidates and constraints are in good order for the search
+        root.resetCandidatesAndValidity();
+
+        int maxSplitSize = numThreads * numThreads;
+        Queue<SudokuNode> queue = new LinkedList<>();
+        queue.offer(new SudokuNode(root));
+        while (!queue.isEmpty() && queue.size() < maxSplitSize) {
+            SudokuNode node = queue.poll();
+
+            if (node.sudoku.isSolved()) {
+                count.incrementAndGet();
+                continue;
+            }
+
+            while (node.hasNext()) queue.offer(node.next());
+        }
+
+        if (queue.isEmpty()) return count.get();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            numThreads, numThreads,
+            1L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>()
+        );
+
+        while (!queue.isEmpty()) {
+            SudokuNode node = queue.poll();
+            pool.submit(() -> {
+                long localCount = node.sudoku.countSolutions();
+                count.addAndGet(localCount);
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1L, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        return count.get();
+    }
+
+    /**
+     * Cooperative stop signal for long-running searches and counts.
+     * Searches poll it at every node, so cancelling stops all of their workers promptly.
+     */
+    public static final class CancellationToken {
+        private volatile boolean cancelled = false;
+        private final long deadlineNanos;
+        private final boolean hasDeadline;
+        private final CancellationToken parent;
+
+        /** Creates a token that is only cancelled by calling <code>cancel()</code>. */
+        public CancellationToken() {
+            this.hasDeadline = false;
+            this.deadlineNanos = 0L;
+            this.parent = null;
+        }
+
+        private CancellationToken(long timeoutMs, CancellationToken parent) {
+            this.hasDeadline = true;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            this.parent = parent;
+        }
+
+        /**
+         * Creates a token that cancels itself once the given amount of time has elapsed.
+         * @param timeoutMs Milliseconds from now until the deadline.
+         */
+        public static CancellationToken withTimeout(long timeoutMs) {
+            if (timeoutMs < 0L) throw new IllegalArgumentException("timeoutMs must be non-negative");
+            return new CancellationToken(timeoutMs, null);
+        }
+
+        /**
+         * Creates a token that is cancelled along with this one, or once the given amount
+         * of time has elapsed, whichever comes first.
+         * @param timeoutMs Milliseconds from now until the deadline.
+         */
+        public CancellationToken childWithTimeout(long timeoutMs) {
+            if (timeoutMs < 0L) throw new IllegalArgumentException("timeoutMs must be non-negative");
+            return new CancellationToken(timeoutMs, this);
+        }
+
+        /** Requests that any search polling this token stops. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /** @return True if cancelled, or if the deadline has passed. */
+        public boolean isCancelled() {
+            if (!cancelled && hasDeadline && System.nanoTime() - deadlineNanos >= 0L) {
+                cancelled = true;
+            }
+            if (!cancelled && parent != null && parent.isCancelled()) {
+                cancelled = true;
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Result of a count that may have stopped early, due to a solution limit or cancellation.
+     */
+    public static final class CountResult {
+        /** Number of solutions found. If not exact, the real count is at least this. */
+        public final long count;
+        /** True if the search ran to completion, so <code>count</code> is the exact number of solutions. */
+        public final boolean exact;
+
+        CountResult(long count, boolean exact) {
+            this.count = count;
+            this.exact = exact;
+        }
+
+        /** @return True if the search stopped early, so <code>count</code> is only a lower bound. */
+        public boolean isLowerBound() {
+            return !exact;
+        }
+
+        @Override
+        public String toString() {
+            return exact ? Long.toString(count) : String.format(">= %d", count);
+        }
+    }
+
+    /**
+     * Position in the trail at which the cell was filled; -1 if filled before the trail was created.
+     */
+    private int placedAt(int ci) {
+        return (trail != null) ? trail.placedAt[ci] : -1;
+    }
+
+    /**
+     * @return The earliest placed peer of the cell holding the digit, if placed before the given
+     * trail position; otherwise -1.
+     */
+    private int excluder(int ci, int digit, int before) {
+        int result = -1;
+        for (int ni : CELL_NEIGHBORS[ci]) {
+            if (digits[ni] == digit && placedAt(ni) < before && (result < 0 || placedAt(ni) < placedAt(result))) {
+                result = ni;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds to the conflict the assignments that the board's contradiction follows from:
+     * an empty cell whose row, column, and region hold every digit, or a digit that no
+     * empty cell of some unit can hold. If there is neither (stronger deductions than
+     * singles found the contradiction), the conflict becomes unknown.
+     */
+    private void explainContradiction(NogoodStore.Conflict conflict) {
+        for (int ci = 0; ci < SPACES; ci++) {
+            if (digits[ci] == 0 && cellConstraints(ci) == ALL) {
+                for (int digit = 1; digit <= DIGITS; digit++) {
+                    explainPlaced(excluder(ci, digit, Integer.MAX_VALUE), conflict);
+                }
+                return;
+            }
+        }
+        for (int unit = 0; unit < UNITS; unit++) {
+            int missing = ALL & ~unitConstraints(unit);
+            for (int ci : UNIT_INDICES[unit]) {
+                if (digits[ci] == 0) missing &= cellConstraints(ci);
+            }
+            if (missing == 0) continue;
+            int digit = DECODER[missing & -missing];
+            for (int ci : UNIT_INDICES[unit]) {
+                explainPlaced((digits[ci] > 0) ? ci : excluder(ci, digit, Integer.MAX_VALUE), conflict);
+            }
+            return;
+        }
+        conflict.known = false;
+    }
+
+    /**
+     * Adds to the conflict the assignments that the cell's candidates outside of
+     * <code>values</code> are excluded by. If some are not excluded by a peer's digit,
+     * the conflict becomes unknown.
+     */
+    private void explainExcluded(int ci, int values, NogoodStore.Conflict conflict) {
+        for (int digit : CANDIDATES_ARR[ALL & ~values]) {
+            int ni = excluder(ci, digit, Integer.MAX_VALUE);
+            if (ni < 0) {
+                conflict.known = false;
+                return;
+            }
+            explainPlaced(ni, conflict);
+        }
+    }
+
+    /**
+     * Adds to the conflict the assignments that the filled cell's digit follows from.
+     * A digit placed as a naked or hidden single is explained by the earlier placements that
+     * made it one; any other digit (a given, a branch, or a stronger deduction) is its own reason,
+     * unless it is on the store's base board.
+     */
+    private void explainPlaced(int ci, NogoodStore.Conflict conflict) {
+        int digit = digits[ci];
+        if (!conflict.markExplained(ci, digit)) return;
+        int at = placedAt(ci);
+        if (at >= 0) {
+            // Naked single: every other digit was held by an earlier placed peer.
+            int held = ENCODER[digit];
+            for (int ni : CELL_NEIGHBORS[ci]) {
+                if (digits[ni] > 0 && placedAt(ni) < at) held |= ENCODER[digits[ni]];
+            }
+            if (held == ALL) {
+                for (int d = 1; d <= DIGITS; d++) {
+                    if (d != digit) explainPlaced(excluder(ci, d, at), conflict);
+                }
+                return;
+            }
+
+            // Hidden single: every other cell of a unit was filled earlier, or excluded from the digit.
+            // Units are numbered as in UNIT_INDICES.
+            int unitsWithDigit = 0;
+            for (int cj = 0; cj < SPACES; cj++) {
+                if (digits[cj] == digit && placedAt(cj) < at) {
+                    unitsWithDigit |= (1 << CELL_ROWS[cj]) | (1 << (DIGITS + CELL_COLS[cj])) | (1 << (2*DIGITS + CELL_REGIONS[cj]));
+                }
+            }
+            int[] units = { CELL_ROWS[ci], DIGITS + CELL_COLS[ci], 2*DIGITS + CELL_REGIONS[ci] };
+            for (int unit : units) {
+                boolean hidden = true;
+                for (int cj : UNIT_INDICES[unit]) {
+                    if (cj == ci || (digits[cj] > 0 && placedAt(cj) < at)) continue;
+                    int cellUnits = (1 << CELL_ROWS[cj]) | (1 << (DIGITS + CELL_COLS[cj])) | (1 << (2*DIGITS + CELL_REGIONS[cj]));
+                    if ((unitsWithDigit & cellUnits) == 0) {
+                        hidden = false;
+                        break;
+                    }
+                }
+                if (hidden) {
+                    for (int cj : UNIT_INDICES[unit]) {
+                        if (cj == ci) continue;
+                        explainPlaced((digits[cj] > 0 && placedAt(cj) < at) ? cj : excluder(cj, digit, at), conflict);
+                    }
+                    return;
+                }
+            }
+        }
+        conflict.add(NogoodStore.literal(ci, digit));
+    }
+
+    /**
+     * State shared by all tasks of one count: the solution limit, cancellation, and whether
+     * the count was cut short.
+     */
+    private static final class CountState {
+        final long limit;
+        final CancellationToken token;
+        final TranspositionTable table;
+        final NogoodStore nogoods;
+        /** Base board of the nogood store; see <code>NogoodStore.baseFor</code>. */
+        int[] base;
+        final AtomicLong found = new AtomicLong();
+        volatile boolean stopped = false;
+
+        CountState(long limit, CancellationToken token, TranspositionTable table, NogoodStore nogoods) {
+            this.limit = limit;
+            this.token = token;
+            this.table = table;
+            this.nogoods = nogoods;
+        }
+
+        boolean shouldStop() {
+            if (!stopped && token != null && token.isCancelled()) stopped = true;
+            return stopped;
+        }
+
+        void onSolutions(long n) {
+            if (limit < Long.MAX_VALUE && found.addAndGet(n) >= limit) stopped = true;
+        }
+    }
+
+    /**
+     * Counts solutions of a reduced board as a fork/join task.
+     * While within <code>splitDepth</code> levels of the root, branches are forked off whenever
+     * the worker's queue has run dry, so idle workers can steal them. Everything else is
+     * searched in place, undoing moves with the trail.
+     */
+    private static final class CountTask extends RecursiveTask<Long> {
+        // Tasks are never serialized; ForkJoinTask is Serializable only by inheritance.
+        private static final long serialVersionUID = 1L;
+
+        private final transient Sudoku sudoku;
+        private final int depth;
+        private final int splitDepth;
+        private final transient CountState state;
+        /** If learning nogoods, conflicts of the subtrees being counted, by depth below this task's root. */
+        private transient NogoodStore.Conflict[] conflicts;
+
+        CountTask(Sudoku sudoku, int depth, int splitDepth, CountState state) {
+            this.sudoku = sudoku;
+            this.depth = depth;
+            this.splitDepth = splitDepth;
+            this.state = state;
+        }
+
+        @Override
+        protected Long compute() {
+            sudoku.trail = new Trail();
+            if (state.nogoods == null) return count(depth, null);
+            conflicts = new NogoodStore.Conflict[SPACES + 2];
+            return count(depth, conflictAt(depth));
+        }
+
+        private NogoodStore.Conflict conflictAt(int depth) {
+            int i = depth - this.depth;
+            if (conflicts[i] == null) conflicts[i] = new NogoodStore.Conflict(state.base);
+            return conflicts[i];
+        }
+
+        /**
+         * @param conflict If learning nogoods, receives the assignments this subtree's failure
+         * follows from (when it has no solutions); otherwise null.
+         */
+        private long count(int depth, NogoodStore.Conflict conflict) {
+            Sudoku s = sudoku;
+            if (state.shouldStop()) {
+                if (conflict != null) conflict.known = false;
+                return 0L;
+            }
+            if (!s.isValid) {
+                if (conflict != null) s.explainContradiction(conflict);
+                return 0L;
+            }
+            if (s.isSolved()) {
+                state.onSolutions(1L);
+                if (conflict != null) conflict.known = false;
+                return 1L;
+            }
+
+            TranspositionTable table = state.table;
+            boolean cacheable = (table != null && table.caches(s.numEmptyCells));
+            long key = s.hash;
+            if (cacheable) {
+                long cached = table.get(key);
+                if (cached >= 0L) {
+                    state.onSolutions(cached);
+                    if (conflict != null) conflict.known = false;
+                    return cached;
+                }
+            }
+
+            int ci = s.pickEmptyCell();
+            int values = s.candidates[ci];
+            int trailMark = s.trail.mark();
+            int numEmptyCells = s.numEmptyCells;
+            long count = 0L;
+            List<CountTask> forked = null;
+
+            NogoodStore nogoods = state.nogoods;
+            NogoodStore.Conflict branchConflict = (conflict != null) ? conflictAt(depth + 1) : null;
+            int triedValues = values;
+
+            while (values > 0) {
+                if (state.stopped) break;
+                int digit = s.pickDigit(ci, values);
+                values &= ~ENCODER[digit];
+                int literal = NogoodStore.literal(ci, digit);
+                if (nogoods != null) {
+                    int[] nogood = nogoods.find(s.digits, ci, digit);
+                    if (nogood != null) {
+                        conflict.addAllExcept(nogood, literal);
+                        continue;
+                    }
+                }
+                if (values > 0 && depth < splitDepth && getSurplusQueuedTaskCount() <= 0) {
+                    // The stolen branch learns on its own, but its failure can't be combined with this one's.
+                    if (conflict != null) conflict.known = false;
+                    Sudoku branch = new Sudoku(s);
+                    branch.setDigit(ci, digit);
+                    branch.reduceNeighbors(ci);
+                    CountTask task = new CountTask(branch, depth + 1, splitDepth, state);
+                    task.fork();
+                    if (forked == null) forked = new ArrayList<>();
+                    forked.add(task);
+                    continue;
+                }
+
+                s.setDigit(ci, digit);
+                s.reduceNeighbors(ci);
+                if (branchConflict != null) branchConflict.reset();
+                long branchCount = count(depth + 1, branchConflict);
+                count += branchCount;
+                if (conflict != null) {
+                    if (branchCount == 0L && branchConflict.known) nogoods.add(branchConflict);
+                    // Every branch failing means the branches' conflicts, less the branch choices,
+                    // are a conflict on their own.
+                    if (branchCount > 0L || !branchConflict.known) conflict.known = false;
+                    else if (conflict.known) conflict.addAllExcept(branchConflict, literal);
+                }
+                s.trail.rollback(s, trailMark);
+                s.numEmptyCells = numEmptyCells;
+                s.isValid = true;
+            }
+
+            if (forked != null) {
+                for (CountTask task : forked) count += task.join();
+            }
+            // A partial count from an interrupted subtree must not be reused.
+            if (cacheable && !state.stopped) table.put(key, count, numEmptyCells);
+            if (conflict != null) {
+                if (count > 0L || state.stopped) {
+                    conflict.known = false;
+                } else if (conflict.known) {
+                    // The cell's other digits were ruled out by its peers.
+                    s.explainExcluded(ci, triedValues, conflict);
+                }
+            }
+            return count;
+        }
+    }
+
+    /** Default number of levels below the root within which the fork/join counter may split work. */
+    public static final int DEFAULT_SPLIT_DEPTH = 24;
+
+    /**
+     * Counts the number of solutions to this sudoku with a work-stealing pool of the given size.
+     * See <code>countSolutionsForkJoin(int, int)</code>.
+     */
+    public long countSolutionsForkJoin(int numThreads) {
+        return countSolutionsForkJoin(numThreads, DEFAULT_SPLIT_DEPTH);
+    }
+
+    /**
+     * Counts the number of solutions to this sudoku with a work-stealing pool of the given size.
+     * Unlike <code>countSolutionsAsync</code>, work is split on demand: a worker hands off
+     * untried branches only when there is no queued work left for others to steal.
+     * @param numThreads Number of worker threads.
+     * @param splitDepth Branches deeper than this many levels below the root are never split off.
+     * A higher value balances better on sparse puzzles, at the cost of more task overhead.
+     * @return Number of solutions.
+     */
+    public long countSolutionsForkJoin(int numThreads, int splitDepth) {
+        return countSolutionsForkJoin(numThreads, splitDepth, Long.MAX_VALUE, null).count;
+    }
+
+    /**
+     * Counts solutions with a work-stealing pool, stopping early once <code>limit</code> solutions
+     * are found or the token is cancelled. All workers poll for either at every search node, and
+     * have stopped by the time this returns.
+     * @param numThreads Number of worker threads.
+     * @param splitDepth Branches deeper than this many levels below the root are never split off.
+     * @param limit Maximum number of solutions to count.
+     * @param token (Optional) Cancellation token or deadline.
+     * @return The count, and whether it is exact or a lower bound.
+     */
+    public CountResult countSolutionsForkJoin(int numThreads, int splitDepth, long limit, CancellationToken token) {
+        return countSolutionsForkJoin(numThreads, splitDepth, limit, token, null, null);
+    }
+
+    private CountResult countSolutionsForkJoin(
+        int numThreads,
+        int splitDepth,
+        long limit,
+        CancellationToken token,
+        TranspositionTable table,
+        NogoodStore nogoods
+    ) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive");
+        if (splitDepth < 0) throw new IllegalArgumentException("splitDepth must be non-negative");
+        if (limit < 1L) throw new IllegalArgumentException("limit must be positive");
+
+        Sudoku root = new Sudoku(this);
+        root.resetCandidatesAndValidity();
+        if (!root.isValid) return new CountResult(0L, true);
+        root.reduce();
+        // A contradiction part way through reducing leaves nothing worth learning from.
+        if (!root.isValid) return new CountResult(0L, true);
+
+        CountState state = new CountState(limit, token, table, nogoods);
+        if (nogoods != null) state.base = nogoods.baseFor(root.digits);
+        long count;
+        if (numThreads == 1) {
+            count = new CountTask(root, 0, 0, state).invoke();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                count = pool.invoke(new CountTask(root, 0, splitDepth, state));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        return state.stopped ? new CountResult(Math.min(count, limit), false) : new CountResult(count, true);
+    }
+
+    /**
+     * Counts the puzzle's solutions on the calling thread, stopping early once <code>limit</code>
+     * solutions are found or the token is cancelled.
+     * @param limit Maximum number of solutions to count.
+     * @param token (Optional) Cancellation token or deadline.
+     * @return The count, and whether it is exact or a lower bound.
+     */
+    public CountResult countSolutions(long limit, CancellationToken token) {
+        return countSolutionsForkJoin(1, 0, limit, token);
+    }
+
+    /**
+     * Counts the puzzle's solutions with the given number of threads, stopping early once
+     * <code>limit</code> solutions are found or the token is cancelled.
+     * @param numThreads Number of worker threads.
+     * @param limit Maximum number of solutions to count.
+     * @param token (Optional) Cancellation token or deadline.
+     * @return The count, and whether it is exact or a lower bound.
+     */
+    public CountResult countSolutionsAsync(int numThreads, long limit, CancellationToken token) {
+        return countSolutionsForkJoin(numThreads, DEFAULT_SPLIT_DEPTH, limit, token);
+    }
+
+    /**
+     * Counts the puzzle's solutions on the calling thread, reusing subtree counts from the given
+     * table wherever two branches reach boards with the same filled cells and the same digits in
+     * every row, column, and region.
+     * @param table Transposition table; may be shared between counts.
+     * @return Number of solutions.
+     */
+    public long countSolutions(TranspositionTable table) {
+        if (table == null) throw new IllegalArgumentException("table must not be null");
+        return countSolutionsForkJoin(1, 0, Long.MAX_VALUE, null, table, null).count;
+    }
+
+    /**
+     * Counts the puzzle's solutions with the given number of threads, all sharing the given
+     * transposition table. See <code>countSolutions(TranspositionTable)</code>.
+     * @param numThreads Number of worker threads.
+     * @param table Transposition table; may be shared between counts.
+     * @return Number of solutions.
+     */
+    public long countSolutionsAsync(int numThreads, TranspositionTable table) {
+        if (table == null) throw new IllegalArgumentException("table must not be null");
+        return countSolutionsForkJoin(numThreads, DEFAULT_SPLIT_DEPTH, Long.MAX_VALUE, null, table, null).count;
+    }
+
+    /**
+     * Counts the puzzle's solutions on the calling thread, learning nogoods from failed branches.
+     * When a branch fails, the few assignments its contradiction actually follows from are
+     * stored, and later branches that would complete a stored nogood are skipped.
+     * @param nogoods Nogood store; may be shared between counts of boards that extend the
+     * first board counted with it. See <code>NogoodStore</code>.
+     * @return Number of solutions.
+     */
+    public long countSolutions(NogoodStore nogoods) {
+        if (nogoods == null) throw new IllegalArgumentException("nogoods must not be null");
+        return countSolutionsForkJoin(1, 0, Long.MAX_VALUE, null, null, nogoods).count;
+    }
+
+    /**
+     * Counts the puzzle's solutions with the given number of threads, all sharing the given
+     * nogood store. See <code>countSolutions(NogoodStore)</code>.
+     * @param numThreads Number of worker threads.
+     * @param nogoods Nogood store; may be shared between counts.
+     * @return Number of solutions.
+     */
+    public long countSolutionsAsync(int numThreads, NogoodStore nogoods) {
+        if (nogoods == null) throw new IllegalArgumentException("nogoods must not be null");
+        return countSolutionsForkJoin(numThreads, DEFAULT_SPLIT_DEPTH, Long.MAX_VALUE, null, null, nogoods).count;
+    }
+
+    /**
+     * Estimate of the number of solutions, from random probes of the search tree.
+     */
+    public static final class SolutionEstimate {
+        /** z-score of the two-sided 95% confidence interval. */
+        static final double Z_95 = 1.96;
+
+        /** Number of probes taken. */
+        public final int samples;
+        /** Number of probes that reached a solution. */
+        public final int solutionsReached;
+        /** Mean of the probe estimates; an unbiased estimate of the number of solutions. */
+        public final double mean;
+        /** Sample variance of the probe estimates. */
+        public final double variance;
+        /** Standard error of the mean. */
+        public final double standardError;
+        /** Lower end of the 95% confidence interval; at least 1 if any probe reached a solution. */
+        public final double lower;
+        /** Upper end of the 95% confidence interval. */
+        public final double upper;
+
+        SolutionEstimate(double[] estimates) {
+            int n = estimates.length;
+            double sum = 0.0;
+            int reached = 0;
+            for (double e : estimates) {
+                sum += e;
+                if (e > 0.0) reached++;
+            }
+            double mean = sum / n;
+            double squares = 0.0;
+            for (double e : estimates) {
+                squares += (e - mean) * (e - mean);
             }
+
+            this.samples = n;
+            this.solutionsReached = reached;
+            this.mean = mean;
+            this.variance = (n > 1) ? squares / (n - 1) : 0.0;
+            this.standardError = Math.sqrt(variance / n);
+            this.lower = Math.max((reached > 0) ? 1.0 : 0.0, mean - Z_95 * standardError);
+            this.upper = mean + Z_95 * standardError;
         }
 
         @Override
-        public Iterator<Sudoku> iterator() {
-            return this;
+        public String toString() {
+            return String.format("%.4g (95%% CI %.4g - %.4g, %d samples)", mean, lower, upper, samples);
         }
     }
 
     /**
-     * Counts the number of solutions to this sudoku with the given number of threads.
-     * Even with multiple threads, a very sparse puzzle may take a long time.
+     * Estimates the number of solutions with Knuth's estimator.
+     * Each probe walks one random path down the search tree, choosing cells the same way the
+     * solver does and a uniformly random candidate in each, and estimates the product of the
+     * number of candidates it chose from if it reaches a solution, or 0 if it reaches a dead end.
+     * The mean of the probes is an unbiased estimate; the interval assumes it is normally distributed,
+     * which is optimistic for small sample sizes, as the probe estimates are heavily skewed.
+     *
+     * Probes run in parallel on the common pool. Results depend only on the seed.
+     * @param samples Number of probes.
+     * @param seed Seed for the random choices.
+     * @return The estimate, with its variance and confidence interval.
      */
-    public long countSolutionsAsync(int numThreads) {
-        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive");
-
-        AtomicLong count = new AtomicLong();
+    public SolutionEstimate estimateSolutions(int samples, long seed) {
+        if (samples < 1) throw new IllegalArgumentException("samples must be positive");
 
         Sudoku root = new Sudoku(this);
-        // Ensure candidates and constraints are in good order for the search
         root.resetCandidatesAndValidity();
+        if (root.isValid) root.reduce();
 
-        int maxSplitSize = numThreads * numThreads;
-        Queue<SudokuNode> queue = new LinkedList<>();
-        queue.offer(new SudokuNode(root));
-        while (!queue.isEmpty() && queue.size() < maxSplitSize) {
-            SudokuNode node = queue.poll();
-
-            if (node.sudoku.isSolved()) {
-                count.incrementAndGet();
-                continue;
-            }
-
-            while (node.hasNext()) queue.offer(node.next());
-        }
-
-        if (queue.isEmpty()) return count.get();
-
-        ThreadPoolExecutor pool = new ThreadPoolExecutor(
-            numThreads, numThreads,
-            1L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>()
-        );
+        // Each probe gets its own generator up front, so results don't depend on scheduling.
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long[] probeSeeds = new long[samples];
+        for (int i = 0; i < samples; i++) probeSeeds[i] = seeds.nextLong();
 
-        while (!queue.isEmpty()) {
-            SudokuNode node = queue.poll();
-            pool.submit(() -> {
-                long localCount = node.sudoku.countSolutions();
-                count.addAndGet(localCount);
-            });
-        }
+        double[] estimates = new double[samples];
+        IntStream.range(0, samples).parallel().forEach(i -> {
+            estimates[i] = root.probe(new SplittableRandom(probeSeeds[i]));
+        });
+        return new SolutionEstimate(estimates);
+    }
 
-        pool.shutdown();
-        try {
-            pool.awaitTermination(1L, TimeUnit.DAYS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Walks one random path from this reduced board to a solution or dead end.
+     * @return The product of the number of candidates chosen from, if a solution is reached; otherwise 0.
+     */
+    private double probe(SplittableRandom rand) {
+        if (!isValid) return 0.0;
+        Sudoku s = new Sudoku(this);
+        s.random = rand;
+        double estimate = 1.0;
+        while (true) {
+            int ci = s.pickEmptyCell();
+            if (ci < 0) return s.isSolved() ? estimate : 0.0;
+
+            int values = s.candidates[ci];
+            int count = BIT_COUNT_MAP[values];
+            if (count == 0) return 0.0;
+            estimate *= count;
+
+            for (int k = rand.nextInt(count); k > 0; k--) values &= values - 1;
+            s.setDigit(ci, DECODER[values & -values]);
+            s.reduceNeighbors(ci);
+            if (!s.isValid) return 0.0;
         }
-
-        return count.get();
     }
 
     /**
@@ -1555,14 +3186,78 @@ public class Sudoku {
      * @return A new Sudoku instance (the solution).
      */
     public Sudoku solution() {
+        int[] board = new int[SPACES];
+        return firstSolution(board) ? new Sudoku(board) : null;
+    }
+
+    /**
+     * Searches for and returns a solution, racing the searches of the given portfolio.
+     * @param portfolio Search configurations to race.
+     * @return A new Sudoku instance (the solution found first); or null if there are no solutions.
+     */
+    public Sudoku solution(Portfolio portfolio) {
+        if (!isValid) return null;
+        int[] board = new int[SPACES];
+        return (race(portfolio, 1L, board) > 0L) ? new Sudoku(board) : null;
+    }
+
+    /**
+     * Searches for and returns the first solution, restarting on the given schedule.
+     * @param restarts Restart schedule; see <code>Restarts</code>.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku solution(Restarts restarts) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.restarts = restarts;
+        return puzz.solution();
+    }
+
+    /**
+     * Searches for and returns the first solution, using the given branching choices.
+     * With a seeded branching, the same solution is returned every time.
+     * @param branching Cell heuristic and value order.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku solution(Branching branching) {
         AtomicReference<Sudoku> result = new AtomicReference<>();
         searchForSolutions3(solution -> {
             result.set(solution);
             return false;
-        });
+        }, branching);
+        return result.get();
+    }
+
+    /**
+     * Searches for and returns the first solution, reducing candidates with the given deduction strength.
+     * @param propagation Deductions to apply at each search node.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku solution(Propagation propagation) {
+        AtomicReference<Sudoku> result = new AtomicReference<>();
+        searchForSolutions3(solution -> {
+            result.set(solution);
+            return false;
+        }, propagation);
         return result.get();
     }
 
+    /**
+     * Searches for and returns the first solution, using the given engine.
+     * @param engine The search engine to use.
+     * @return A new Sudoku instance (the solution); or null if there are no solutions.
+     */
+    public Sudoku solution(Engine engine) {
+        if (engine == Engine.BITBOARD) {
+            int[] board = new int[SPACES];
+            return (BitboardSolver.local().countSolutions(digits, 1L, board) > 0L) ? new Sudoku(board) : null;
+        }
+        if (engine == Engine.DLX) {
+            int[] board = new int[SPACES];
+            return (DlxSolver.local().countSolutions(digits, 1L, board) > 0L) ? new Sudoku(board) : null;
+        }
+        return solution();
+    }
+
     public List<Sudoku> getAllSolutions() {
         return getAllSolutions(new ArrayList<>());
     }
@@ -1575,6 +3270,119 @@ public class Sudoku {
         return list;
     }
 
+    /**
+     * Builds a diagram of all solutions, with equivalent subtrees shared, instead of a list.
+     * Use this in place of <code>getAllSolutions</code> when there may be many solutions.
+     * @return The diagram; see <code>SolutionDiagram</code>.
+     */
+    public SolutionDiagram solutionDiagram() {
+        return new SolutionDiagram(this);
+    }
+
+    /**
+     * Cells that hold the same digit in every solution of a puzzle.
+     */
+    public static final class Backbone {
+        /** Cells with the same digit in every solution, givens included. */
+        public final SudokuMask mask;
+        /** The digits of those cells; empty elsewhere. */
+        public final Sudoku forced;
+
+        Backbone(int[] solution, boolean[] varies) {
+            this.mask = new SudokuMask();
+            int[] board = new int[SPACES];
+            for (int ci = 0; ci < SPACES; ci++) {
+                if (!varies[ci]) {
+                    mask.setBit(ci);
+                    board[ci] = solution[ci];
+                }
+            }
+            this.forced = new Sudoku(board);
+        }
+
+        @Override
+        public String toString() {
+            return forced.toString();
+        }
+    }
+
+    /**
+     * Finds the cells that hold the same digit in every solution, using the number of threads
+     * currently available to the JVM. See <code>backbone(int)</code>.
+     */
+    public Backbone backbone() {
+        return backbone(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Finds the cells that hold the same digit in every solution, without enumerating them.
+     * Starting from one solution, each cell is tested with a search for a solution that has
+     * a different digit there, stopping at the first found. Every cell where that solution
+     * differs is known to vary, so it needs no test of its own.
+     * @param numThreads Number of threads testing cells.
+     * @return The backbone; or null if there are no solutions.
+     */
+    public Backbone backbone(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive");
+        Sudoku root = new Sudoku(this);
+        root.resetCandidatesAndValidity();
+        if (!root.isValid) return null;
+        root.reduce();
+        if (!root.isValid) return null;
+
+        int[] first = new int[SPACES];
+        if (new Sudoku(root).searchReduced(1L, first) == 0L) return null;
+
+        // 1 for cells known to take more than one digit. The rest are forced once all are tested.
+        AtomicIntegerArray varies = new AtomicIntegerArray(SPACES);
+        int[] open = IntStream.range(0, SPACES).filter(ci -> root.digits[ci] == 0).toArray();
+        ThreadLocal<Sudoku> scratch = ThreadLocal.withInitial(() -> new Sudoku(root));
+        ThreadLocal<int[]> buffer = ThreadLocal.withInitial(() -> new int[SPACES]);
+        IntConsumer test = ci -> {
+            if (varies.get(ci) == 1) return;
+            Sudoku s = scratch.get();
+            s.copyBoard(root);
+            if (!s.excludeCandidate(ci, first[ci])) return;
+
+            int[] other = buffer.get();
+            if (s.searchReduced(1L, other) == 0L) return;
+            for (int cj : open) {
+                if (other[cj] != first[cj]) varies.set(cj, 1);
+            }
+        };
+
+        if (numThreads == 1) {
+            for (int ci : open) test.accept(ci);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.submit(() -> IntStream.of(open).parallel().forEach(test)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("backbone interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("backbone failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        boolean[] result = new boolean[SPACES];
+        for (int ci = 0; ci < SPACES; ci++) result[ci] = varies.get(ci) == 1;
+        return new Backbone(first, result);
+    }
+
+    /**
+     * Removes a candidate from an empty cell of this reduced board, then propagates.
+     * @return False (and <code>isValid</code> is set false) if a contradiction is found.
+     */
+    private boolean excludeCandidate(int ci, int digit) {
+        Worklist worklist = Worklist.local();
+        worklist.clear();
+        if (!eliminate(ci, ENCODER[digit], worklist)) return false;
+        return propagate(worklist);
+    }
+
     public List<Sudoku> getSolutions(int amount, List<Sudoku> list) {
         searchForSolutions3(solution -> {
             list.add(solution);
@@ -1594,6 +3402,7 @@ public class Sudoku {
         if (_solution != null) {
             this.numEmptyCells = _solution.numEmptyCells;
             this.isValid = _solution.isValid;
+            this.hash = _solution.hash;
             System.arraycopy(_solution.digits, 0, this.digits, 0, SPACES);
             System.arraycopy(_solution.candidates, 0, this.candidates, 0, SPACES);
             System.arraycopy(_solution.constraints, 0, this.constraints, 0, DIGITS);
@@ -1607,6 +3416,33 @@ public class Sudoku {
      * @return True if all branches of this puzzle are solvable with a unique solution.
      */
     public boolean allBranchesSolveUniquely() {
+        return branchesSolveUniquely(null);
+    }
+
+    /**
+     * Checks whether all branches of this puzzle solve uniquely, learning nogoods into the given
+     * store. Each branch is this puzzle with one more digit, so contradictions found while
+     * counting one branch are reused by the rest. See <code>allBranchesSolveUniquely()</code>.
+     * @param nogoods Nogood store; see <code>countSolutions(NogoodStore)</code>.
+     * @return True if all branches of this puzzle are solvable with a unique solution.
+     */
+    public boolean allBranchesSolveUniquely(NogoodStore nogoods) {
+        if (nogoods == null) throw new IllegalArgumentException("nogoods must not be null");
+        return branchesSolveUniquely(nogoods);
+    }
+
+    /**
+     * @param nogoods (Optional) Nogood store to learn into.
+     */
+    private boolean branchesSolveUniquely(NogoodStore nogoods) {
+        if (nogoods != null) {
+            // Base the store on this puzzle, which every branch extends.
+            Sudoku root = new Sudoku(this);
+            root.resetCandidatesAndValidity();
+            root.reduce();
+            if (root.isValid) nogoods.baseFor(root.digits);
+        }
+
         for (int ci = 0; ci < SPACES; ci++) {
             int originalVal = candidates[ci];
             if (originalVal == 0) return false;
@@ -1614,7 +3450,7 @@ public class Sudoku {
                 int count = 0;
                 for (int candidateDigit : CANDIDATES_ARR[originalVal]) {
                     setDigit(ci, candidateDigit); // mutates constraints
-                    int flag = solutionsFlag();
+                    int flag = (nogoods != null) ? solutionsFlag(nogoods) : solutionsFlag();
                     setDigit(ci, 0); // undo the constraints mutation
                     candidates[ci] = originalVal;
                     if (flag == 2) return false;
@@ -1999,16 +3835,213 @@ public class Sudoku {
     public int solutionsFlag() {
         if (!isValid) return 0;
         if (numEmptyCells > SPACES - MIN_CLUES) return 2;
+        return (int) searchCount(2L, null);
+    }
 
-        AtomicInteger count = new AtomicInteger();
-        searchForSolutions3(_s -> (count.incrementAndGet() < 2));
-        return count.get();
+    /**
+     * Gets a flag indicating information about the sudoku's number of solutions,
+     * learning nogoods into the given store. See <code>solutionsFlag()</code>.
+     */
+    private int solutionsFlag(NogoodStore nogoods) {
+        if (!isValid) return 0;
+        if (numEmptyCells > SPACES - MIN_CLUES) return 2;
+        return (int) countSolutionsForkJoin(1, 0, 2L, null, null, nogoods).count;
+    }
+
+    /**
+     * Gets a flag indicating information about the sudoku's number of solutions,
+     * racing the searches of the given portfolio. See <code>solutionsFlag()</code>.
+     * @param portfolio Search configurations to race.
+     */
+    public int solutionsFlag(Portfolio portfolio) {
+        if (!isValid) return 0;
+        if (numEmptyCells > SPACES - MIN_CLUES) return 2;
+        return (int) race(portfolio, 2L, null);
+    }
+
+    /**
+     * Gets a flag indicating information about the sudoku's number of solutions,
+     * restarting on the given schedule. See <code>solutionsFlag()</code>.
+     * @param restarts Restart schedule; see <code>Restarts</code>.
+     */
+    public int solutionsFlag(Restarts restarts) {
+        Sudoku puzz = new Sudoku(this);
+        puzz.restarts = restarts;
+        return puzz.solutionsFlag();
+    }
+
+    /**
+     * @return True if the sudoku has exactly one solution.
+     */
+    public boolean hasUniqueSolution() {
+        return solutionsFlag() == 1;
+    }
+
+    /**
+     * @return True if the sudoku has at least one solution.
+     */
+    public boolean hasSolution() {
+        return isValid && searchCount(1L, null) > 0L;
+    }
+
+    /**
+     * Counts solutions, stopping once <code>limit</code> are found.
+     * @param limit Maximum number of solutions to count.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    public long countSolutionsUpTo(long limit) {
+        if (limit < 1L) throw new IllegalArgumentException("limit must be positive");
+        if (!isValid) return 0L;
+        return searchCount(limit, null);
+    }
+
+    /**
+     * Searches for the first solution, writing its digits into the given buffer.
+     * @param buffer 81-length array to receive the solution. Untouched if there is none.
+     * @return True if a solution was found.
+     */
+    public boolean firstSolution(int[] buffer) {
+        if (buffer == null || buffer.length != SPACES) {
+            throw new IllegalArgumentException("buffer must have length " + SPACES);
+        }
+        if (!isValid) return false;
+        return searchCount(1L, buffer) > 0L;
+    }
+
+    /**
+     * Counts solutions depth-first, stopping once <code>limit</code> are found.
+     * Backs the exists, count-up-to, first-solution, and uniqueness checks: unlike
+     * <code>searchForSolutions3</code>, solutions are neither copied nor passed to a callback.
+     * @param firstSolution (Optional) Receives the digits of the first solution found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    private long searchCount(long limit, int[] firstSolution) {
+        return searchCount(limit, firstSolution, null);
+    }
+
+    /**
+     * See <code>searchCount(long, int[])</code>.
+     * @param token (Optional) Cancellation token, polled at every search node.
+     * @return Number of solutions found, up to <code>limit</code>; or -1 if cancelled.
+     */
+    private long searchCount(long limit, int[] firstSolution, CancellationToken token) {
+        Sudoku root = new Sudoku(this);
+        root.resetCandidatesAndValidity();
+        root.reduce();
+
+        if (!root.isValid) return 0L;
+        if (root.isSolved()) {
+            if (firstSolution != null) System.arraycopy(root.digits, 0, firstSolution, 0, SPACES);
+            return 1L;
+        }
+
+        if (restarts == Restarts.NONE || !branching.isRandomized()) {
+            return root.searchRun(limit, firstSolution, Long.MAX_VALUE, null, token);
+        }
+
+        // Distinct solutions found so far, by any run.
+        List<int[]> found = new ArrayList<>();
+        for (int run = 0; ; run++) {
+            Sudoku puzz = new Sudoku(root);
+            long count = puzz.searchRun(limit, null, restarts.budget(run), found, token);
+            if (token != null && token.isCancelled()) return -1L;
+            if (count >= 0L) {
+                if (firstSolution != null && !found.isEmpty()) {
+                    System.arraycopy(found.get(0), 0, firstSolution, 0, SPACES);
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Counts solutions of this board, which must already be reduced, stopping once
+     * <code>limit</code> are found. The board is used as the search state, so it is
+     * left modified, and its trail is replaced.
+     * @param firstSolution (Optional) Receives the digits of the first solution found.
+     * @return Number of solutions found, up to <code>limit</code>.
+     */
+    long searchReduced(long limit, int[] firstSolution) {
+        if (!isValid) return 0L;
+        if (isSolved()) {
+            if (firstSolution != null) System.arraycopy(digits, 0, firstSolution, 0, SPACES);
+            return 1L;
+        }
+        return searchRun(limit, firstSolution, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * One run of <code>searchCount</code> from this reduced board.
+     * @param nodeBudget Maximum number of search nodes to visit.
+     * @param found (Optional) Distinct solutions found by earlier runs; new ones are added, and
+     * the run stops once there are <code>limit</code> of them.
+     * @param token (Optional) Cancellation token.
+     * @return Number of solutions found, up to <code>limit</code>; or -1 if the budget ran out
+     * or the token was cancelled first.
+     */
+    private long searchRun(long limit, int[] firstSolution, long nodeBudget, List<int[]> found, CancellationToken token) {
+        trail = new Trail();
+        ANode[] stack = new ANode[numEmptyCells];
+        for (int i = 0; i < stack.length; i++) stack[i] = new ANode();
+        stack[0].set(this);
+        if (!stack[0].loadNext(this)) return 0L;
+        int curStackIndex = 0;
+        long nodes = 1L;
+        long count = 0L;
+
+        while (curStackIndex > -1) {
+            if (isValid && !isSolved()) {
+                if (++nodes > nodeBudget) return -1L;
+                if (token != null && token.isCancelled()) return -1L;
+                curStackIndex++;
+                stack[curStackIndex].set(this);
+                if (!stack[curStackIndex].loadNext(this)) {
+                    // No digit fits the chosen cell; backtrack instead of pushing past it.
+                    while (curStackIndex > -1 && !stack[curStackIndex].loadNext(this)) curStackIndex--;
+                }
+                continue;
+            }
+
+            if (isValid) {
+                if (count == 0L && firstSolution != null) {
+                    System.arraycopy(digits, 0, firstSolution, 0, SPACES);
+                }
+                if (found != null && !containsBoard(found, digits)) {
+                    found.add(digits.clone());
+                    if (found.size() >= limit) return found.size();
+                }
+                if (++count >= limit) break;
+            }
+            while (curStackIndex > -1 && !stack[curStackIndex].loadNext(this)) curStackIndex--;
+        }
+
+        return count;
+    }
+
+    private static boolean containsBoard(List<int[]> boards, int[] board) {
+        for (int[] b : boards) {
+            if (Arrays.equals(b, board)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets a flag indicating information about the sudoku's number of solutions,
+     * using the given engine. See <code>solutionsFlag()</code>.
+     * @param engine The search engine to use.
+     */
+    public int solutionsFlag(Engine engine) {
+        if (engine == Engine.DEFAULT) return solutionsFlag();
+        if (!isValid) return 0;
+        if (numEmptyCells > SPACES - MIN_CLUES) return 2;
+        if (engine == Engine.DLX) return (int) DlxSolver.local().countSolutions(digits, 2L, null);
+        return (int) BitboardSolver.local().countSolutions(digits, 2L, null);
     }
 
     /**
      * Finds and returns the index of an empty cell, or -1 if no empty cells exist.
-     * Prioritizes empty cells with the fewest number of candidates. If multiple cells
-     * have the fewest number of candidates, chooses one of them at random.
+     * Prioritizes empty cells with the fewest number of candidates, breaking ties
+     * according to the board's branching choices.
      * @return Index of an empty cell, or -1 if no empty cells exist.
      */
     int pickEmptyCell() {
@@ -2018,40 +4051,110 @@ public class Sudoku {
     /**
      * Finds and returns the index of an empty cell within a given cell range,
      * or -1 if no empty cells exist.
-     * Prioritizes empty cells with the fewest number of candidates. If multiple cells
-     * have the fewest number of candidates, chooses one of them at random.
+     * Prioritizes empty cells with the fewest number of candidates, breaking ties
+     * according to the board's branching choices. Does not allocate.
      * @param startIndex Starting cell index of the range to check (inclusive).
      * @param endIndex Ending cell index of the range to check (exclusive).
      * @return Index of an empty cell, or -1 if no empty cells exist.
      */
-    // Hoisting this list up here actually runs slightly slower...
-    // private List<Integer> _minimums = new ArrayList<>();
     public int pickEmptyCell(int startIndex, int endIndex) {
         if (numEmptyCells == 0) {
             return  -1;
         }
 
+        if (branching.cellHeuristic == CellHeuristic.FIRST_MIN) {
+            // The minimum comes from a (possibly vectorized) count; then stop at the first match.
+            int fewest = (startIndex == 0 && endIndex == SPACES) ?
+                CandidateKernels.get().minCandidateCount(digits, candidates) :
+                DIGITS + 1;
+            for (int ci = startIndex; ci < endIndex && fewest <= DIGITS; ci++) {
+                if (digits[ci] == 0 && BIT_COUNT_MAP[candidates[ci]] == fewest) return ci;
+            }
+        }
+
         int min = DIGITS + 1;
-        List<Integer> _minimums = new ArrayList<>();
+        int first = -1;
+        int ties = 0;
+        int bestDegree = -1;
+        boolean byDegree = (branching.cellHeuristic == CellHeuristic.MRV_DEGREE);
         for (int ci = startIndex; ci < endIndex; ci++) {
             if (digits[ci] == 0) {
                 int numCandidates = BIT_COUNT_MAP[candidates[ci]];
-                // This actually seems to run slightly slower...
-                // if (numCandidates == 2) {
-                //     return ci;
-                // }
                 if (numCandidates < min) {
                     min = numCandidates;
-                    _minimums.clear();
-                    _minimums.add(ci);
+                    first = ci;
+                    ties = 1;
+                    if (byDegree) bestDegree = emptyNeighborCount(ci);
                 } else if (numCandidates == min) {
-                    _minimums.add(ci);
+                    ties++;
+                    if (byDegree) {
+                        int degree = emptyNeighborCount(ci);
+                        if (degree > bestDegree) {
+                            bestDegree = degree;
+                            first = ci;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (first < 0 || ties == 1 || branching.cellHeuristic != CellHeuristic.RANDOM) {
+            return first;
+        }
+
+        // Second pass to the randomly chosen tie, rather than collecting them all.
+        int skip = rng().nextInt(ties);
+        for (int ci = first; ci < endIndex; ci++) {
+            if (digits[ci] == 0 && BIT_COUNT_MAP[candidates[ci]] == min && skip-- == 0) {
+                return ci;
+            }
+        }
+        return first;
+    }
+
+    private int emptyNeighborCount(int ci) {
+        int count = 0;
+        for (int ni : CELL_NEIGHBORS[ci]) {
+            if (digits[ni] == 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Picks the next digit to try for the given cell, according to the board's value order.
+     * @param ci Index of the cell being branched on.
+     * @param remaining Encoded candidates not yet tried; must not be 0.
+     * @return The digit (1-9) to try next.
+     */
+    int pickDigit(int ci, int remaining) {
+        switch (branching.valueOrder) {
+            case ASCENDING:
+                return DECODER[remaining & -remaining];
+            case LEAST_CONSTRAINING: {
+                int best = 0;
+                int bestCount = Integer.MAX_VALUE;
+                for (int digit : CANDIDATES_ARR[remaining]) {
+                    int candidate = ENCODER[digit];
+                    int count = 0;
+                    for (int ni : CELL_NEIGHBORS[ci]) {
+                        if (digits[ni] == 0 && (candidates[ni] & candidate) > 0) count++;
+                    }
+                    if (count < bestCount) {
+                        bestCount = count;
+                        best = digit;
+                    }
                 }
+                return best;
+            }
+            default: {
+                int[] candidateDigits = CANDIDATES_ARR[remaining];
+                return candidateDigits[rng().nextInt(candidateDigits.length)];
             }
         }
+    }
 
-        return (!_minimums.isEmpty()) ? _minimums.get(ThreadLocalRandom.current().nextInt(_minimums.size())) : -1;
-        // return _minimums.get(RandomGenerator.getDefault().nextInt(_minimums.size()));
+    private RandomGenerator rng() {
+        return (random != null) ? random : ThreadLocalRandom.current();
     }
 
     @Override
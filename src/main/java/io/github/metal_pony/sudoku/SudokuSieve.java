@@ -6,6 +6,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -274,6 +277,69 @@ public class SudokuSieve {
         seedThreaded(masks, Runtime.getRuntime().availableProcessors());
     }
 
+    /**
+     * Shared pool for background seeding. Its threads are daemons, so pending seeding
+     * never keeps the JVM alive.
+     */
+    private static final int BACKGROUND_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService BACKGROUND = Executors.newFixedThreadPool(
+        BACKGROUND_THREADS,
+        task -> {
+            Thread thread = new Thread(task, "sieve-seeding");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    /** Levels seeded, or being seeded, in the background; bit <code>level</code> is set for each. */
+    private int backgroundLevels = 0;
+    /** Background seeding tasks, one per mask, that may not have finished. */
+    private final List<CompletableFuture<Void>> backgroundTasks = new ArrayList<>();
+
+    /**
+     * Seeds the sieve with <code>fullPrintCombos(level)</code> on a shared background pool.
+     * Items are added as they are found, so the sieve stays usable, and grows, meanwhile.
+     * Each level is seeded at most once.
+     *
+     * With a single processor there is nothing for seeding to overlap with, so the level
+     * is seeded before this returns instead.
+     * @param level From 2 through 4.
+     * @return True if seeding was started; otherwise false if the level was already seeded.
+     */
+    public boolean seedInBackground(int level) {
+        if (level < 2 || level > 4) throw new IllegalArgumentException("Invalid level");
+        List<SudokuMask> masks = fullPrintCombos(level);
+        synchronized (this) {
+            if ((backgroundLevels & (1 << level)) != 0) return false;
+            backgroundLevels |= 1 << level;
+            if (BACKGROUND_THREADS > 1) {
+                backgroundTasks.removeIf(CompletableFuture::isDone);
+                for (SudokuMask mask : masks) {
+                    backgroundTasks.add(CompletableFuture.runAsync(() -> addFromFilter(mask), BACKGROUND));
+                }
+                return true;
+            }
+        }
+        for (SudokuMask mask : masks) addFromFilter(mask);
+        return true;
+    }
+
+    /**
+     * @return True if background seeding started by <code>seedInBackground</code> is still running.
+     */
+    public synchronized boolean isSeeding() {
+        backgroundTasks.removeIf(CompletableFuture::isDone);
+        return !backgroundTasks.isEmpty();
+    }
+
+    /**
+     * Stops background seeding. Masks already being filtered are finished; the rest are skipped.
+     */
+    public synchronized void cancelSeeding() {
+        for (CompletableFuture<Void> task : backgroundTasks) task.cancel(false);
+        backgroundTasks.clear();
+    }
+
     /**
      * Checks whether the given SudokuMask is an unavoidable set.
      * @param mask Mask representing an unavoidable set.
@@ -389,6 +455,31 @@ public class SudokuSieve {
         return numAdded.get();
     }
 
+    /**
+     * Adds the unavoidable set revealed by another solution of a puzzle made from this sieve's
+     * grid: the cells where the two differ, reduced until no cell can be left out. The result is
+     * added without <code>validate</code>, whose check of every candidate branch is stricter
+     * than minimality.
+     * @param solution A full and valid board other than the grid.
+     * @return True if the item was added; otherwise false if it is derivative of an existing item.
+     */
+    public boolean addFromSolution(int[] solution) {
+        SudokuMask item = _config.diff2(solution);
+        int[] witness = new int[Sudoku.SPACES];
+        // Cells that can't be left out stay that way as the set shrinks, so one pass suffices.
+        for (int ci : item.toIndices()) {
+            if (!item.testBit(ci)) continue;
+            SudokuMask clues = new SudokuMask(item).flip().setBit(ci);
+            if (Sudoku.hasAlternativeSolution(_config, clues, witness)) {
+                item = _config.diff2(witness);
+            }
+        }
+
+        synchronized (this) {
+            return !isDerivative(item) && rawAdd(item);
+        }
+    }
+
     public int addFromPuzzleMask(SudokuMask mask) {
         AtomicInteger numAdded = new AtomicInteger();
         _config.filter(mask).searchForSolutions3(solution -> {
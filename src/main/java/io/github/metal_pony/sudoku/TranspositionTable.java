@@ -0,0 +1,124 @@
+package io.github.metal_pony.sudoku;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of subtree solution counts, keyed by <code>Sudoku.zobristHash()</code>.
+ *
+ * The hash covers which cells are filled and which digits each row, column, and region
+ * already holds. Those alone determine how many ways the rest of the board can be completed,
+ * so boards reached by different branches with the digits arranged differently share an entry.
+ *
+ * Entries live in two-way buckets of a fixed-size table. On a miss, the entry with fewer
+ * empty cells (the cheaper subtree to recount) is evicted. Reads and writes are lock-free:
+ * each key is stored XORed with its count, so an entry torn by a concurrent write fails to
+ * match and reads as a miss. A table may be shared by several counts, and by the threads of one.
+ */
+public final class TranspositionTable {
+    /** Bytes used per entry: a key, a count, and the entry's number of empty cells. */
+    public static final int ENTRY_BYTES = 2 * Long.BYTES + 1;
+    /** Default minimum number of empty cells for a board to be cached. */
+    public static final int DEFAULT_MIN_EMPTY_CELLS = 4;
+
+    private final long[] keys;
+    private final long[] counts;
+    private final byte[] emptyCells;
+    private final int mask;
+    private final int minEmptyCells;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Creates a table using at most the given number of bytes, caching boards with at least
+     * <code>DEFAULT_MIN_EMPTY_CELLS</code> empty cells.
+     * @param memoryBytes Memory budget, in bytes.
+     */
+    public TranspositionTable(long memoryBytes) {
+        this(memoryBytes, DEFAULT_MIN_EMPTY_CELLS);
+    }
+
+    /**
+     * Creates a table using at most the given number of bytes.
+     * @param memoryBytes Memory budget, in bytes. Rounded down to a power-of-two number of entries.
+     * @param minEmptyCells Boards with fewer empty cells are not cached; their subtrees are
+     * cheaper to count than to look up.
+     */
+    public TranspositionTable(long memoryBytes, int minEmptyCells) {
+        long maxEntries = memoryBytes / ENTRY_BYTES;
+        if (maxEntries < 2L) {
+            throw new IllegalArgumentException("memoryBytes must allow at least 2 entries");
+        }
+        if (minEmptyCells < 1 || minEmptyCells > Sudoku.SPACES) {
+            throw new IllegalArgumentException("minEmptyCells must be within [1, 81]");
+        }
+        int size = Integer.highestOneBit((int) Math.min(maxEntries, 1 << 30));
+        this.keys = new long[size];
+        this.counts = new long[size];
+        this.emptyCells = new byte[size];
+        this.mask = size - 1;
+        this.minEmptyCells = minEmptyCells;
+    }
+
+    /** @return Number of entries the table can hold. */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /** @return Number of lookups made so far. */
+    public long probes() {
+        return probes.sum();
+    }
+
+    /** @return Number of lookups that found a count. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** @return True if boards with the given number of empty cells are worth caching. */
+    boolean caches(int numEmptyCells) {
+        return numEmptyCells >= minEmptyCells;
+    }
+
+    /**
+     * Looks up the solution count for the given hash.
+     * @return The cached count; or -1 if not present.
+     */
+    long get(long key) {
+        probes.increment();
+        int i = (int) key & mask & ~1;
+        for (int j = i; j < i + 2; j++) {
+            long count = counts[j];
+            if ((keys[j] ^ count) == key && emptyCells[j] != 0) {
+                hits.increment();
+                return count;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Stores the solution count for the given hash.
+     * @param numEmptyCells Empty cells on the board; larger subtrees are kept over smaller ones.
+     */
+    void put(long key, long count, int numEmptyCells) {
+        int i = (int) key & mask & ~1;
+        int slot = i;
+        if ((keys[i + 1] ^ counts[i + 1]) == key) {
+            slot = i + 1;
+        } else if ((keys[i] ^ counts[i]) != key && emptyCells[i + 1] < emptyCells[i]) {
+            slot = i + 1;
+        }
+        counts[slot] = count;
+        keys[slot] = key ^ count;
+        emptyCells[slot] = (byte) numEmptyCells;
+    }
+
+    /** Removes all entries. */
+    public void clear() {
+        Arrays.fill(emptyCells, (byte) 0);
+        Arrays.fill(keys, 0L);
+        Arrays.fill(counts, 0L);
+    }
+}
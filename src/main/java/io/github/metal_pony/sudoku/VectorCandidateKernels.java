@@ -0,0 +1,132 @@
+package io.github.metal_pony.sudoku;
+
+import static io.github.metal_pony.sudoku.Sudoku.ALL;
+import static io.github.metal_pony.sudoku.Sudoku.DIGITS;
+import static io.github.metal_pony.sudoku.Sudoku.SPACES;
+import static io.github.metal_pony.sudoku.Sudoku.UNITS;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <code>CandidateKernels</code> using the incubating Vector API, at the platform's preferred width.
+ * Per-cell row, column, and region lookups are gathers through the <code>CELL_*</code> index tables
+ * of <code>CandidateKernels</code>;
+ * the cells past the last full vector are handled with scalar code.
+ *
+ * Only instantiated by <code>CandidateKernels.get()</code>, when <code>jdk.incubator.vector</code> is enabled.
+ */
+final class VectorCandidateKernels extends CandidateKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int CELL_BOUND = SPECIES.loopBound(SPACES);
+    private static final int UNIT_BOUND = SPECIES.loopBound(UNITS);
+
+    /** <code>UNIT_CELLS[k][u]</code> is the k-th cell of unit <code>u</code>. */
+    private static final int[][] UNIT_CELLS = new int[DIGITS][UNITS];
+    static {
+        int[] unitSizes = new int[UNITS];
+        for (int ci = 0; ci < SPACES; ci++) {
+            int[] units = { CELL_ROWS[ci], DIGITS + CELL_COLS[ci], 2*DIGITS + CELL_REGIONS[ci] };
+            for (int u : units) {
+                UNIT_CELLS[unitSizes[u]++][u] = ci;
+            }
+        }
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void recomputeCandidates(int[] digits, int[] constraints, int[] candidates) {
+        IntVector all = IntVector.broadcast(SPECIES, ALL);
+        IntVector one = IntVector.broadcast(SPECIES, 1);
+        int ci = 0;
+        for (; ci < CELL_BOUND; ci += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, digits, ci);
+            IntVector used = IntVector.fromArray(SPECIES, constraints, 0, CELL_ROWS, ci)
+                .lanewise(VectorOperators.ASHR, DIGITS * 2)
+                .or(IntVector.fromArray(SPECIES, constraints, 0, CELL_COLS, ci)
+                    .lanewise(VectorOperators.ASHR, DIGITS))
+                .or(IntVector.fromArray(SPECIES, constraints, 0, CELL_REGIONS, ci));
+            IntVector free = all.lanewise(VectorOperators.AND_NOT, used);
+            // Empty cells take free instead, so their shift by -1 does not matter.
+            IntVector own = one.lanewise(VectorOperators.LSHL, d.sub(1));
+            own.blend(free, d.compare(VectorOperators.EQ, 0)).intoArray(candidates, ci);
+        }
+        for (; ci < SPACES; ci++) {
+            candidates[ci] = cellCandidates(digits, constraints, ci);
+        }
+    }
+
+    @Override
+    int minCandidateCount(int[] digits, int[] candidates) {
+        IntVector none = IntVector.broadcast(SPECIES, DIGITS + 1);
+        IntVector min = none;
+        int ci = 0;
+        for (; ci < CELL_BOUND; ci += SPECIES.length()) {
+            IntVector counts = IntVector.fromArray(SPECIES, candidates, ci).lanewise(VectorOperators.BIT_COUNT);
+            VectorMask<Integer> filled = IntVector.fromArray(SPECIES, digits, ci).compare(VectorOperators.NE, 0);
+            min = min.min(counts.blend(none, filled));
+        }
+        int result = min.reduceLanes(VectorOperators.MIN);
+        for (; ci < SPACES; ci++) {
+            if (digits[ci] == 0) result = Math.min(result, Integer.bitCount(candidates[ci]));
+        }
+        return result;
+    }
+
+    @Override
+    boolean isFull(int[] digits) {
+        int ci = 0;
+        for (; ci < CELL_BOUND; ci += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, digits, ci);
+            if (d.compare(VectorOperators.LE, 0).or(d.compare(VectorOperators.GT, DIGITS)).anyTrue()) {
+                return false;
+            }
+        }
+        for (; ci < SPACES; ci++) {
+            if (digits[ci] <= 0 || digits[ci] > DIGITS) return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean isValid(int[] digits) {
+        int ci = 0;
+        for (; ci < CELL_BOUND; ci += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, digits, ci);
+            if (d.compare(VectorOperators.LT, 0).or(d.compare(VectorOperators.GT, DIGITS)).anyTrue()) {
+                return false;
+            }
+        }
+        for (; ci < SPACES; ci++) {
+            if (digits[ci] < 0 || digits[ci] > DIGITS) return false;
+        }
+
+        // One lane per unit: a digit already seen in the unit means a repeat.
+        IntVector one = IntVector.broadcast(SPECIES, 1);
+        int u = 0;
+        for (; u < UNIT_BOUND; u += SPECIES.length()) {
+            IntVector seen = IntVector.zero(SPECIES);
+            for (int k = 0; k < DIGITS; k++) {
+                IntVector d = IntVector.fromArray(SPECIES, digits, 0, UNIT_CELLS[k], u);
+                IntVector e = one.lanewise(VectorOperators.LSHL, d.sub(1)).blend(0, d.compare(VectorOperators.EQ, 0));
+                if (seen.and(e).compare(VectorOperators.NE, 0).anyTrue()) return false;
+                seen = seen.or(e);
+            }
+        }
+        for (; u < UNITS; u++) {
+            int seen = 0;
+            for (int k = 0; k < DIGITS; k++) {
+                int e = encode(digits[UNIT_CELLS[k][u]]);
+                if ((seen & e) > 0) return false;
+                seen |= e;
+            }
+        }
+        return true;
+    }
+}
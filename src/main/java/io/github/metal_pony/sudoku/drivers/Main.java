@@ -1,9 +1,12 @@
 package io.github.metal_pony.sudoku.drivers;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,6 +16,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Stack;
@@ -23,12 +27,16 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+import io.github.metal_pony.sudoku.NogoodStore;
 import io.github.metal_pony.sudoku.PuzzleEntry;
+import io.github.metal_pony.sudoku.SolutionDiagram;
 import io.github.metal_pony.sudoku.Sudoku;
 import io.github.metal_pony.sudoku.SudokuMask;
 import io.github.metal_pony.sudoku.SudokuSieve;
+import io.github.metal_pony.sudoku.TranspositionTable;
 import io.github.metal_pony.sudoku.drivers.gui.SudokuGuiDemo;
 
 /**
@@ -53,9 +61,24 @@ import io.github.metal_pony.sudoku.drivers.gui.SudokuGuiDemo;
  *    `--clues XX` [Default: 27] Number of clues for the puzzles.
  *    `--threads XX` [Default: 1] Number of threads used for generation.
  *        More is not necessarily better.
+ *    `--grid XX` [Default: random per thread] Solution grid shared by all puzzles.
+ *    `--timeoutMs XX` [Default: 60000] Time limit per attempt; attempts over it are skipped.
  *
  * `solve --puzzle 1.3.456.2...(etc)`
  * Search for and output solutions to the given sudoku board.
+ * Optional args:
+ *    `--engine XX` [Default: default] Search engine; `default`, `bitboard`, or `dlx`.
+ *    `--propagation XX` [Default: singles] Deduction strength for the default engine;
+ *        `singles`, `intersections`, `pairs`, or `triples`.
+ *    `--restarts XX` [Default: none] Restart schedule for the default engine;
+ *        `none`, `luby`, or `geometric`.
+ *    `--portfolio` Races several differently configured searches; the first to finish answers.
+ *
+ * `benchPropagation`
+ * Compares search nodes and time of each propagation level, checking uniqueness
+ * of the puzzles in sudoku-17.txt.
+ * Optional args:
+ *    `--amount XX` [Default: 1000] Number of puzzles to check.
  */
 public class Main {
   private static void sleep(long timeMs) {
@@ -103,11 +126,20 @@ public class Main {
     // --amount %d --normalize
     put("generateConfigs", Main::generateConfigs);
     put("benchConfigs", Main::benchConfigGeneration);
-    // --amount %d --clues %d --threads %d
+    // --grid %s --amount %d --clues %d --threads %d --timeoutMs %d
     put("generatePuzzles", Main::generatePuzzles);
+    // --grid %s --threads %d --splitDepth %d --limit %d --timeoutMs %d --engine %s --propagation %s --ttMB %d --nogoods %d --bands
     put("countSolutions", Main::countSolutions);
-    // --puzzle %s --threads %d --timeout %d
+    // --grid %s --samples %d --seed %d
+    put("estimateSolutions", Main::estimateSolutions);
+    // --grid %s --samples %d --seed %d
+    put("solutionDiagram", Main::solutionDiagram);
+    // --grid %s --threads %d
+    put("backbone", Main::backbone);
+    // --grid %s --engine %s --propagation %s --restarts %s --portfolio
     put("solve", Main::solve);
+    // --amount %d
+    put("benchPropagation", Main::benchPropagation);
     put("generateBands", Main::generateInitialBands);
     // --level %d --grid %s --threads %d
     put("sieve", Main::createSieve);
@@ -265,10 +297,47 @@ Commands:
     generateConfigs [--amount (1), --normalize (false)]
         Generates a full sudoku grid. Optionally "normalize" the grid such that
         the top row reads 1 through 9, sequentially.
-    generatePuzzles [--amount (1) --clues (27) --threads (1)]
-        Generates a sudoku puzzle with the given number of clues.
-    solve --grid [--timeoutMs (10_000) --threads (1)]
+    generatePuzzles [--grid (random) --amount (1) --clues (27) --threads (1) --timeoutMs (60000)]
+        Generates sudoku puzzles with the given number of clues, one per line.
+        Each thread generates from its own random grid, unless a grid is given.
+        An attempt taking longer than `timeoutMs` is skipped. Throughput and the
+        number of timed out attempts are printed to stderr at the end.
+    solve --grid [--timeoutMs (10_000) --threads (1) --engine (default) --propagation (singles)]
         Prints all solutions of the given sudoku grid.
+        `engine` is one of `default`, `bitboard`, or `dlx`.
+        `propagation` is one of `singles`, `intersections`, `pairs`, or `triples`,
+        and applies to the default engine.
+        [--restarts none|luby|geometric] restarts the default engine's search
+        with fresh random choices on the given node budget schedule.
+        [--portfolio] races several differently configured searches on their own
+        threads; the first to finish answers and the rest are cancelled.
+    countSolutions [--grid (random) --threads (1) --splitDepth (24) --engine (default) --propagation (singles)]
+        Counts the solutions of the given sudoku grid.
+        With more than one thread, subtrees within `splitDepth` levels of the root
+        are split off on demand for idle threads to steal.
+        [--limit N --timeoutMs N] stop early; the output is then prefixed with `>=`
+        if the count is only a lower bound. Default engine and propagation only.
+        [--ttMB N] reuses subtree counts from a transposition table of N megabytes.
+        Default engine and propagation only; not with `limit` or `timeoutMs`.
+        [--nogoods N] learns up to N nogoods from failed branches, skipping
+        branches that would repeat a known contradiction. Default engine and
+        propagation only; not with `limit`, `timeoutMs`, or `ttMB`.
+        [--bands] counts band by band instead of one solution at a time;
+        much faster for sparse puzzles with very many solutions.
+        Not with `engine`, `propagation`, `limit`, `timeoutMs`, `ttMB`, or `nogoods`.
+        `engine` is one of `default`, `bitboard`, or `dlx`; engines other than
+        `default` run on one thread.
+        `propagation` other than `singles` applies to the default engine on one thread.
+    estimateSolutions --grid [--samples (10000) --seed (random)]
+        Estimates the number of solutions from random probes of the search tree,
+        with a 95% confidence interval.
+    solutionDiagram --grid [--samples (0) --seed (random)]
+        Builds a shared diagram of all solutions and prints the number of solutions
+        and diagram nodes, followed by `samples` solutions drawn uniformly at random.
+    backbone --grid [--threads (all)]
+        Prints the cells that take the same digit in every solution, and how many there are.
+    benchPropagation [--amount (1000)]
+        Compares search nodes and time per propagation level on 17-clue puzzles.
     sieve [--grid (random) --level (2)]
         Gets unavoidable sets for the given grid.
         `level` supported from 2 through 4.
@@ -343,50 +412,179 @@ Commands:
     defaultInMap(args, "amount", "1");
     defaultInMap(args, "clues", "27");
     defaultInMap(args, "threads", "1");
+    defaultInMap(args, "timeoutMs", "60000");
 
+    // With a grid, every puzzle shares its solution; otherwise each thread generates its own.
     String gridStr = args.get("grid");
-    boolean useSameSolution = (gridStr == null);
-    Sudoku grid = (gridStr == null) ? Sudoku.generateConfig() : new Sudoku(gridStr);
-
-    final int amount = inBounds(Integer.parseInt(args.get("amount")), 1, 1_000_000);
+    final Sudoku sharedGrid = (gridStr == null) ? null : new Sudoku(gridStr);
+    if (sharedGrid != null && !sharedGrid.isSolved()) {
+      throw new IllegalArgumentException("Solution grid is invalid");
+    }
+    final int amount = inBounds(Integer.parseInt(args.get("amount")), 1, 100_000_000);
     final int clues = inBounds(Integer.parseInt(args.get("clues")), 19, Sudoku.SPACES);
-    // TODO Generate with multiple threads
-    // final int threads = inBounds(Integer.parseInt(args.get("threads")), 1, MAX_THREADS);
+    final int numThreads = inBounds(Integer.parseInt(args.get("threads")), 1, MAX_THREADS);
+    final long timeoutMs = Math.max(0L, Long.parseLong(args.get("timeoutMs")));
 
-    SudokuSieve sieve = new SudokuSieve(grid);
+    debug(
+      "generatePuzzles(\n  amount: %d\n  clues: %d\n  threads: %d\n  timeoutMs: %d\n):\n",
+      amount, clues, numThreads, timeoutMs
+    );
 
-    for (int n = 0; n < amount; n++) {
-      Sudoku puzzle = Sudoku.generatePuzzle(
-        useSameSolution ? grid : null,
-        clues,
-        useSameSolution ? sieve : null,
-        0,
-        60*1000L,
-        true
-      );
-      if (puzzle == null) {
-        // Timed out
-        return;
-      } else {
-        System.out.println(puzzle);
+    // Puzzles are handed to this thread for output; workers block while it is full.
+    LinkedBlockingQueue<String> output = new LinkedBlockingQueue<>(1024);
+    AtomicInteger claimed = new AtomicInteger();
+    AtomicInteger attempts = new AtomicInteger();
+    AtomicInteger timeouts = new AtomicInteger();
+    // Cancelled once every puzzle is written, so attempts still running stop early.
+    Sudoku.CancellationToken done = new Sudoku.CancellationToken();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+      numThreads, numThreads,
+      1L, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>()
+    );
+
+    long start = System.currentTimeMillis();
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      workers.add(pool.submit(() -> {
+        Sudoku grid = (sharedGrid != null) ? sharedGrid : Sudoku.generateConfig();
+        SudokuSieve sieve = new SudokuSieve(grid);
+        while (claimed.get() < amount && !done.isCancelled()) {
+          attempts.incrementAndGet();
+          Sudoku.CancellationToken token = (timeoutMs > 0L) ? done.childWithTimeout(timeoutMs) : done;
+          Sudoku puzzle = Sudoku.generatePuzzle(grid, clues, sieve, 0, token, true);
+          if (puzzle == null) {
+            // Timed out; only this attempt is given up.
+            if (!done.isCancelled()) timeouts.incrementAndGet();
+          } else if (claimed.getAndIncrement() < amount) {
+            output.put(puzzle.toString());
+          }
+        }
+        return null;
+      }));
+    }
+    pool.shutdown();
+
+    int written = 0;
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    try {
+      while (written < amount) {
+        String puzzle = output.poll(100L, TimeUnit.MILLISECONDS);
+        if (puzzle == null) {
+          if (pool.isTerminated() && output.isEmpty()) break;
+          continue;
+        }
+        out.write(puzzle);
+        out.newLine();
+        written++;
       }
+      done.cancel();
+      out.flush();
+      for (Future<?> worker : workers) worker.get();
+    } catch (IOException | InterruptedException | ExecutionException e) {
+      done.cancel();
+      pool.shutdownNow();
+      throw new RuntimeException("Puzzle generation failed", e);
     }
+
+    long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+    System.err.printf(
+      "%d puzzles in %d ms (%.1f / sec); %d attempts, %d timed out (%.2f%%)\n",
+      written, elapsed, written * 1000.0 / elapsed,
+      attempts.get(), timeouts.get(), 100.0 * timeouts.get() / Math.max(1, attempts.get())
+    );
   }
 
   private static void countSolutions(ArgsMap args) {
     defaultInMap(args, "threads", "1");
+    defaultInMap(args, "splitDepth", Integer.toString(Sudoku.DEFAULT_SPLIT_DEPTH));
+    defaultInMap(args, "engine", "default");
+    defaultInMap(args, "propagation", "singles");
 
     String gridStr = args.get("grid");
     Sudoku grid = (gridStr == null) ? Sudoku.configSeed().solution() : new Sudoku(gridStr);
     final int numThreads = inBounds(Integer.parseInt(args.get("threads")), 1, Runtime.getRuntime().availableProcessors());
+    final int splitDepth = inBounds(Integer.parseInt(args.get("splitDepth")), 0, Sudoku.SPACES);
+    final Sudoku.Engine engine = Sudoku.Engine.parse(args.get("engine"));
+    final Sudoku.Propagation propagation = Sudoku.Propagation.parse(args.get("propagation"));
+    // Options with no search that applies them together are rejected rather than ignored.
+    final boolean threaded = Integer.parseInt(args.get("threads")) > 1;
+    exclusive("engine", engine != Sudoku.Engine.DEFAULT, "threads", threaded);
+    final boolean propagated = propagation != Sudoku.Propagation.SINGLES;
+    exclusive("propagation", propagated, "engine", engine != Sudoku.Engine.DEFAULT);
+    exclusive("propagation", propagated, "threads", threaded);
+    final boolean limited = args.containsKey("limit") || args.containsKey("timeoutMs");
+    exclusive("limit/--timeoutMs", limited, "engine", engine != Sudoku.Engine.DEFAULT);
+    exclusive("limit/--timeoutMs", limited, "propagation", propagated);
+    final boolean tabled = args.containsKey("ttMB");
+    exclusive("ttMB", tabled, "engine", engine != Sudoku.Engine.DEFAULT);
+    exclusive("ttMB", tabled, "propagation", propagated);
+    exclusive("ttMB", tabled, "limit/--timeoutMs", limited);
+    final boolean banded = args.containsKey("bands");
+    exclusive("bands", banded, "engine", engine != Sudoku.Engine.DEFAULT);
+    exclusive("bands", banded, "propagation", propagated);
+    exclusive("bands", banded, "limit/--timeoutMs", limited);
+    exclusive("bands", banded, "ttMB", tabled);
+    final boolean learning = args.containsKey("nogoods");
+    exclusive("nogoods", learning, "engine", engine != Sudoku.Engine.DEFAULT);
+    exclusive("nogoods", learning, "propagation", propagated);
+    exclusive("nogoods", learning, "limit/--timeoutMs", limited);
+    exclusive("nogoods", learning, "ttMB", tabled);
+    exclusive("nogoods", learning, "bands", banded);
 
     long start = System.currentTimeMillis();
     long numSolutions = 0L;
-    if (numThreads == 1) {
+    if (banded) {
+      debug("countSolutions(\n  grid: %s\n  numThreads: %d\n  bands\n):\n", grid.toString(), numThreads);
+      BigInteger count = grid.countSolutionsByBands(numThreads);
+      debug("(%d ms)\n", System.currentTimeMillis() - start);
+      System.out.println(count);
+      return;
+    } else if (limited) {
+      long limit = args.containsKey("limit") ? Math.max(1L, Long.parseLong(args.get("limit"))) : Long.MAX_VALUE;
+      long timeoutMs = args.containsKey("timeoutMs") ? Math.max(0L, Long.parseLong(args.get("timeoutMs"))) : 0L;
+      Sudoku.CancellationToken token = (timeoutMs > 0L) ? Sudoku.CancellationToken.withTimeout(timeoutMs) : null;
+      debug(
+        "countSolutions(\n  grid: %s\n  numThreads: %d\n  limit: %d\n  timeoutMs: %d\n):\n",
+        grid.toString(), numThreads, limit, timeoutMs
+      );
+      Sudoku.CountResult result = grid.countSolutionsForkJoin(numThreads, splitDepth, limit, token);
+      debug("(%d ms)\n", System.currentTimeMillis() - start);
+      System.out.println(result);
+      return;
+    } else if (tabled) {
+      long ttMB = Math.max(1L, Long.parseLong(args.get("ttMB")));
+      TranspositionTable table = new TranspositionTable(ttMB * 1024L * 1024L);
+      debug(
+        "countSolutions(\n  grid: %s\n  numThreads: %d\n  ttMB: %d\n):\n",
+        grid.toString(), numThreads, ttMB
+      );
+      numSolutions = (numThreads == 1) ? grid.countSolutions(table) : grid.countSolutionsAsync(numThreads, table);
+      debug("Table hits: %d / %d\n", table.hits(), table.probes());
+    } else if (learning) {
+      int capacity = Math.max(1, Integer.parseInt(args.get("nogoods")));
+      NogoodStore nogoods = new NogoodStore(capacity);
+      debug(
+        "countSolutions(\n  grid: %s\n  numThreads: %d\n  nogoods: %d\n):\n",
+        grid.toString(), numThreads, capacity
+      );
+      numSolutions = (numThreads == 1) ? grid.countSolutions(nogoods) : grid.countSolutionsAsync(numThreads, nogoods);
+      debug("Nogoods: %d stored, %d hits / %d probes\n", nogoods.size(), nogoods.hits(), nogoods.probes());
+    } else if (engine != Sudoku.Engine.DEFAULT) {
+      debug("countSolutions(\n  grid: %s\n  engine: %s\n):\n", grid.toString(), engine);
+      numSolutions = grid.countSolutions(engine);
+    } else if (propagation != Sudoku.Propagation.SINGLES) {
+      debug("countSolutions(\n  grid: %s\n  propagation: %s\n):\n", grid.toString(), propagation);
+      numSolutions = grid.countSolutions(propagation);
+    } else if (numThreads == 1) {
       debug("countSolutions(\n  grid: %s\n  numThreads: %d\n):\n", grid.toString(), numThreads);
       numSolutions = grid.countSolutionsAsync(numThreads);
     } else {
-
+      debug(
+        "countSolutions(\n  grid: %s\n  numThreads: %d\n  splitDepth: %d\n):\n",
+        grid.toString(), numThreads, splitDepth
+      );
+      numSolutions = grid.countSolutionsForkJoin(numThreads, splitDepth);
     }
     long end = System.currentTimeMillis();
     debug("Total: %d\n", numSolutions);
@@ -394,8 +592,113 @@ Commands:
     System.out.println(numSolutions);
   }
 
+  private static void estimateSolutions(ArgsMap args) {
+    defaultInMap(args, "samples", "10000");
+    defaultInMap(args, "seed", Long.toString(System.nanoTime()));
+    Sudoku grid = new Sudoku(args.get("grid"));
+    int samples = Math.max(1, Integer.parseInt(args.get("samples")));
+    long seed = Long.parseLong(args.get("seed"));
+
+    debug("estimateSolutions(\n  grid: %s\n  samples: %d\n  seed: %d\n):\n", grid.toString(), samples, seed);
+    long start = System.currentTimeMillis();
+    Sudoku.SolutionEstimate estimate = grid.estimateSolutions(samples, seed);
+    debug("(%d ms)\n", System.currentTimeMillis() - start);
+    System.out.println(estimate);
+  }
+
+  private static void solutionDiagram(ArgsMap args) {
+    defaultInMap(args, "samples", "0");
+    defaultInMap(args, "seed", Long.toString(System.nanoTime()));
+    Sudoku grid = new Sudoku(args.get("grid"));
+    int samples = Math.max(0, Integer.parseInt(args.get("samples")));
+    long seed = Long.parseLong(args.get("seed"));
+
+    debug("solutionDiagram(\n  grid: %s\n  samples: %d\n  seed: %d\n):\n", grid.toString(), samples, seed);
+    long start = System.currentTimeMillis();
+    SolutionDiagram diagram = grid.solutionDiagram();
+    debug("(%d ms)\n", System.currentTimeMillis() - start);
+    System.out.printf("%d solutions, %d nodes, %d edges\n", diagram.count(), diagram.numNodes(), diagram.numEdges());
+
+    Random rand = new Random(seed);
+    for (int i = 0; i < samples; i++) {
+      Sudoku sample = diagram.sample(rand);
+      if (sample == null) break;
+      System.out.println(sample.toString());
+    }
+  }
+
+  private static void backbone(ArgsMap args) {
+    defaultInMap(args, "threads", Integer.toString(MAX_THREADS));
+    Sudoku grid = new Sudoku(args.get("grid"));
+    int numThreads = inBounds(Integer.parseInt(args.get("threads")), 1, MAX_THREADS);
+
+    debug("backbone(\n  grid: %s\n  threads: %d\n):\n", grid.toString(), numThreads);
+    long start = System.currentTimeMillis();
+    Sudoku.Backbone backbone = grid.backbone(numThreads);
+    debug("(%d ms)\n", System.currentTimeMillis() - start);
+    if (backbone == null) {
+      System.out.println("No solutions");
+      return;
+    }
+    System.out.println(backbone);
+    System.out.printf("%d forced cells\n", backbone.mask.bitCount());
+  }
+
   private static void solve(ArgsMap args) {
-    System.out.println(new Sudoku(args.get("grid")).solution().toString());
+    defaultInMap(args, "engine", "default");
+    defaultInMap(args, "propagation", "singles");
+    Sudoku.Engine engine = Sudoku.Engine.parse(args.get("engine"));
+    Sudoku.Propagation propagation = Sudoku.Propagation.parse(args.get("propagation"));
+    Sudoku puzzle = new Sudoku(args.get("grid"));
+    Sudoku solution;
+    if (engine != Sudoku.Engine.DEFAULT) {
+      solution = puzzle.solution(engine);
+    } else if (args.containsKey("portfolio")) {
+      solution = puzzle.solution(Sudoku.Portfolio.DEFAULT);
+    } else if (args.containsKey("restarts")) {
+      solution = puzzle.solution(Sudoku.Restarts.parse(args.get("restarts")));
+    } else {
+      solution = puzzle.solution(propagation);
+    }
+    System.out.println((solution == null) ? "No solution." : solution.toString());
+  }
+
+  private static void benchPropagation(ArgsMap args) {
+    defaultInMap(args, "amount", "1000");
+    List<String> lines = readAllLines(resourceStream("sudoku-17.txt"));
+    int amount = inBounds(Integer.parseInt(args.get("amount")), 1, lines.size());
+    List<Sudoku> puzzles = new ArrayList<>();
+    for (int i = 0; i < amount; i++) {
+      puzzles.add(new Sudoku(lines.get(i).trim()));
+    }
+
+    System.out.printf("benchPropagation({ amount: %d })\n", amount);
+    System.out.printf("%-14s %12s %10s %10s\n", "propagation", "nodes", "ms", "unique");
+    for (Sudoku.Propagation propagation : Sudoku.Propagation.values()) {
+      long[] nodes = new long[1];
+      int[] unique = new int[1];
+      long time = timeCpuExecution(() -> {
+        for (Sudoku puzzle : puzzles) {
+          int[] count = new int[1];
+          nodes[0] += puzzle.searchForSolutions3(solution -> ++count[0] < 2, propagation);
+          if (count[0] == 1) unique[0]++;
+        }
+      });
+      System.out.printf(
+        "%-14s %12d %10d %10d\n",
+        propagation.name().toLowerCase(),
+        nodes[0],
+        TimeUnit.NANOSECONDS.toMillis(time),
+        unique[0]
+      );
+    }
+  }
+
+  /** Throws a usage error if two options that can't be combined are both given. */
+  private static void exclusive(String option, boolean given, String other, boolean otherGiven) {
+    if (given && otherGiven) {
+      throw new IllegalArgumentException(String.format("--%s can't be combined with --%s", option, other));
+    }
   }
 
   private static int inBounds(int value, int min, int max) {
@@ -1234,13 +1537,13 @@ Commands:
     // Total times accrued by each function
     // 0 - countSolutions
     // 1 - countSolutionsAsync (newer)
-    // 2 - countSolutionsAsync (older)
+    // 2 - countSolutions (dlx)
     long[][] times = new long[puzzleStrs.size()][3];
     int i = 0;
     int numThreads = 8;
 
     System.out.println("⚠️ count2 algo (SolutionCountResult) has been deleted.\nThe performance between the two was comparable, but the implementation of count1 was much simpler, and so it stays.");
-    System.out.printf("%9s%9s%9s %s\n%s\n", "count1", "count2", "count3", "puzzle", "-".repeat(81+28));
+    System.out.printf("%9s%9s%9s %s\n%s\n", "count1", "count2", "dlx", "puzzle", "-".repeat(81+28));
     for (Entry<String,Integer> entry : puzzleStrs.entrySet()) {
       String pStr = entry.getKey();
       int expectedCount = entry.getValue();
@@ -1267,20 +1570,13 @@ Commands:
       }
 
       start = System.currentTimeMillis();
-      // SolutionCountResult countResult = new Sudoku(pStr).countSolutionsAsync(numThreads, 1L, TimeUnit.MINUTES);
-      // try {
-      //   countResult.await();
-      // } catch (InterruptedException e) {
-      //   System.out.printf("\n❌ countSolutionsAsync2 failed\n%s\n", pStr);
-      //   e.printStackTrace();
-      // }
-      // actualCount = countResult.get();
+      actualCount = new Sudoku(pStr).countSolutions(Sudoku.Engine.DLX);
       end = System.currentTimeMillis();
       if (actualCount == expectedCount) {
         times[i][2] = end - start;
         System.out.printf("%9d", times[i][2]);
       } else {
-        System.out.printf("\n❌ countSolutionsAsync2 mismatch (expected %d, got %d)\n%s\n", expectedCount, actualCount, pStr);
+        System.out.printf("\n❌ countSolutions (dlx) mismatch (expected %d, got %d)\n%s\n", expectedCount, actualCount, pStr);
       }
 
       i++;
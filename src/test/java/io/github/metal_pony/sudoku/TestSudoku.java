@@ -3,20 +3,27 @@ package io.github.metal_pony.sudoku;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import io.github.metal_pony.sudoku.util.ArraysUtil;
 import io.github.metal_pony.sudoku.util.Counting;
@@ -341,7 +348,7 @@ public class TestSudoku {
         }
     }
 
-    private final String configFixtureStr = "218574639573896124469123578721459386354681792986237415147962853695318247832745961";
+    private static final String configFixtureStr = "218574639573896124469123578721459386354681792986237415147962853695318247832745961";
     private Sudoku configFixture;
     private SudokuSieve configFixtureSieve;
 
@@ -363,7 +370,7 @@ public class TestSudoku {
     private Sudoku puzzleFixture;
     private String[] puzzleSolutions;
 
-    private HashMap<String,Integer> PUZZLESTRS_TO_NUM_SOLUTIONS = new HashMap<>() {{
+    private static final HashMap<String,Integer> PUZZLESTRS_TO_NUM_SOLUTIONS = new HashMap<>() {{
         put("...45.7...5........4......3.8...3.1.9..241..85.69...3.2..3...7.3...7..........3..", 1463);
         put("....5..89..8...16......1..2..76.3..............1..5..45...6..73.......4..74..89.1", 2361);
         // put("..3.5.7.9..7..8.4...8............8.6.8...54.2...8..........932.3.42..6......3.1..", 25339);
@@ -386,13 +393,20 @@ public class TestSudoku {
         put(".2.......9.6.175..........34.....961.....5....7.9.4.......42...237.8...5....3..2.", 243);
     }};
 
-    private String[] invalidPuzzles = new String[]{
+    private static final String[] invalidPuzzles = new String[]{
         // Invalid because of digit clashing (col 7: 3...5.3.1)
         "1.2....3..9..1.........3..1.15...4...2.1...5.8.....1.6..1....3......1...2......1.",
         // Invalid because cell 0 has no candidates
         ".123456789...1...........1.1...........1...........1....1...........1...........1"
     };
 
+    private static final String[] unsolvablePuzzles = new String[]{
+        // No clue repeats, but cell 7 has no candidates (row 0: 1-6; col 7: 7, 8, 9)
+        "123456............................7........8........9............................",
+        // No clue repeats, but cells 7 and 8 can each only be 8 (cols 7 and 8 hold 9)
+        "1234567...........................9...........................9.................."
+    };
+
     @BeforeEach
     void before() {
         configFixture = new Sudoku(configFixtureStr);
@@ -587,6 +601,27 @@ public class TestSudoku {
         }
     }
 
+    @Test
+    void unsolvablePuzzles_withoutRepeatedClues_findNoSolutions() {
+        for (String puzzleStr : unsolvablePuzzles) {
+            Sudoku p = new Sudoku(puzzleStr);
+            assertTrue(p.isValid());
+            assertNull(p.solution());
+            assertEquals(0L, p.countSolutions());
+            assertEquals(0L, p.countSolutionsForkJoin(2));
+            assertFalse(p.hasSolution());
+            p.searchForSolutions3(s -> fail("Unexpected solution " + s));
+            for (Sudoku.Propagation propagation : Sudoku.Propagation.values()) {
+                assertEquals(0L, p.countSolutions(propagation), propagation.name());
+                assertNull(p.solution(propagation), propagation.name());
+            }
+
+            Sudoku reduced = new Sudoku(p);
+            reduced.reduce();
+            assertFalse(reduced.isValid());
+        }
+    }
+
     @Test
     void test_searchForSolutions3_withKnownValidPuzzle_findsSolution() {
         Sudoku p = new Sudoku("...8.1..........435............7.8........1...2..3....6......75..34........2..6..");
@@ -714,6 +749,18 @@ public class TestSudoku {
         assertFalse(new Sudoku().searchForSolutionsAsync(s -> {}, 8, 250L));
     }
 
+    @Test
+    void searchForSolutionsAsync_whenDeadlinePassesAfterFinishing_reportsFinished() {
+        // The solved grid is handed over before any worker starts; the deadline passes meanwhile.
+        assertTrue(configFixture.searchForSolutionsAsync(s -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 2, 20L));
+    }
+
     @Test
     void searchForSolutionsAsync_findsAllSolutions() {
         for (int numThreads : new int[]{1, 8}) {
@@ -795,6 +842,785 @@ public class TestSudoku {
         }
     }
 
+    @Test
+    void reduce_onlyPlacesDigitsFromTheSolution() {
+        for (String pStr : GeneratedPuzzles.PUZZLES_24_1000) {
+            Sudoku puzzle = new Sudoku(pStr);
+            int[] solution = puzzle.solution().getBoard();
+            puzzle.reduce();
+            assertTrue(puzzle.isValid());
+            for (int ci = 0; ci < Sudoku.SPACES; ci++) {
+                int digit = puzzle.getDigit(ci);
+                if (digit > 0) {
+                    assertEquals(solution[ci], digit);
+                } else {
+                    assertTrue((puzzle.getCandidate(ci) & Sudoku.ENCODER[solution[ci]]) > 0);
+                }
+            }
+        }
+
+        for (String p : invalidPuzzles) {
+            Sudoku puzzle = new Sudoku(p);
+            puzzle.resetCandidatesAndValidity();
+            puzzle.reduce();
+            assertFalse(puzzle.isValid());
+        }
+    }
+
+    // Puzzles, and how many solutions each has, to check every search against.
+    static Stream<Arguments> crossCheckPuzzles() {
+        Stream.Builder<Arguments> puzzles = Stream.builder();
+        PUZZLESTRS_TO_NUM_SOLUTIONS.forEach((p, numSolutions) -> puzzles.add(Arguments.of(p, numSolutions.longValue())));
+        for (String p : invalidPuzzles) puzzles.add(Arguments.of(p, 0L));
+        for (String p : unsolvablePuzzles) puzzles.add(Arguments.of(p, 0L));
+        puzzles.add(Arguments.of(configFixtureStr, 1L));
+        for (int i = 0; i < 20; i++) puzzles.add(Arguments.of(GeneratedPuzzles.PUZZLES_24_1000[i], 1L));
+        return puzzles.build();
+    }
+
+    /** @return The flag <code>solutionsFlag</code> gives a puzzle with the given number of solutions. */
+    private static int expectedFlag(Sudoku puzzle, long numSolutions) {
+        // Too few clues is reported as multiple solutions without a search.
+        if (puzzle.isValid() && puzzle.numClues() < Sudoku.MIN_CLUES) return 2;
+        return (int) Math.min(numSolutions, 2L);
+    }
+
+    /** Asserts that the solution is null if the puzzle has none, and otherwise completes the puzzle. */
+    private static void assertSolves(Sudoku puzzle, long numSolutions, Sudoku solution) {
+        if (numSolutions == 0L) {
+            assertNull(solution);
+            return;
+        }
+        assertNotNull(solution);
+        assertTrue(solution.isSolved());
+        int[] givens = puzzle.getBoard();
+        int[] board = solution.getBoard();
+        for (int ci = 0; ci < Sudoku.SPACES; ci++) {
+            if (givens[ci] > 0) assertEquals(givens[ci], board[ci]);
+        }
+    }
+
+    @ParameterizedTest(name = "bitboardEngineAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void bitboardEngineAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        for (Sudoku.Engine engine : new Sudoku.Engine[] { Sudoku.Engine.DEFAULT, Sudoku.Engine.BITBOARD }) {
+            assertEquals(expected, puzzle.countSolutions(engine), engine.name());
+            assertEquals(expectedFlag(puzzle, expected), puzzle.solutionsFlag(engine), engine.name());
+            assertSolves(puzzle, expected, puzzle.solution(engine));
+        }
+    }
+
+    @Test
+    void bitboardEngine_matchesDefaultEngine() {
+        Sudoku empty = new Sudoku();
+        assertTrue(empty.solution(Sudoku.Engine.BITBOARD).isSolved());
+        assertEquals(2, empty.solutionsFlag(Sudoku.Engine.BITBOARD));
+        // The search works on its own copy of the board.
+        assertEquals(Sudoku.SPACES, empty.numEmptyCells());
+
+        assertEquals(configFixture.toString(), configFixture.solution(Sudoku.Engine.BITBOARD).toString());
+        for (int i = 0; i < 100; i++) {
+            Sudoku puzzle = new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]);
+            assertEquals(puzzle.solution().toString(), puzzle.solution(Sudoku.Engine.BITBOARD).toString());
+        }
+    }
+
+    @ParameterizedTest(name = "propagationLevelsAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void propagationLevelsAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        for (Sudoku.Propagation propagation : Sudoku.Propagation.values()) {
+            assertEquals(expected, puzzle.countSolutions(propagation), propagation.name());
+            assertSolves(puzzle, expected, puzzle.solution(propagation));
+        }
+    }
+
+    @Test
+    void propagationLevels_agreeOnSolutions() {
+        Sudoku empty = new Sudoku();
+        for (Sudoku.Propagation propagation : Sudoku.Propagation.values()) {
+            assertTrue(empty.solution(propagation).isSolved());
+            assertEquals(Sudoku.SPACES, empty.numEmptyCells());
+            assertEquals(configFixture.toString(), configFixture.solution(propagation).toString());
+        }
+    }
+
+    @ParameterizedTest(name = "dlxEngineAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void dlxEngineAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        assertEquals(expected, puzzle.countSolutions(Sudoku.Engine.DLX));
+        assertEquals(expectedFlag(puzzle, expected), puzzle.solutionsFlag(Sudoku.Engine.DLX));
+        assertSolves(puzzle, expected, puzzle.solution(Sudoku.Engine.DLX));
+
+        // Enumeration visits each solution once.
+        Set<String> solutions = new HashSet<>();
+        puzzle.searchForSolutions(Sudoku.Engine.DLX, solution -> {
+            assertSolves(puzzle, expected, solution);
+            solutions.add(solution.toString());
+            return true;
+        });
+        assertEquals(expected, solutions.size());
+    }
+
+    @Test
+    void dlxEngine_matchesDefaultEngine() {
+        Sudoku empty = new Sudoku();
+        assertTrue(empty.solution(Sudoku.Engine.DLX).isSolved());
+        assertEquals(2, empty.solutionsFlag(Sudoku.Engine.DLX));
+        assertEquals(Sudoku.SPACES, empty.numEmptyCells());
+
+        // Stops when the callback says so.
+        AtomicInteger visited = new AtomicInteger();
+        empty.searchForSolutions(Sudoku.Engine.DLX, solution -> visited.incrementAndGet() < 5);
+        assertEquals(5, visited.get());
+
+        for (int i = 0; i < 100; i++) {
+            Sudoku puzzle = new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]);
+            assertEquals(puzzle.solution().toString(), puzzle.solution(Sudoku.Engine.DLX).toString());
+        }
+    }
+
+    @ParameterizedTest(name = "forkJoinAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void forkJoinAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        for (int splitDepth : new int[] { 0, 1, Sudoku.DEFAULT_SPLIT_DEPTH }) {
+            assertEquals(expected, puzzle.countSolutionsForkJoin(2, splitDepth), "splitDepth " + splitDepth);
+        }
+    }
+
+    @Test
+    void countSolutionsForkJoin() {
+        Sudoku empty = new Sudoku();
+        assertThrows(IllegalArgumentException.class, () -> empty.countSolutionsForkJoin(0));
+        assertThrows(IllegalArgumentException.class, () -> empty.countSolutionsForkJoin(1, -1));
+
+        // Splitting deeper than there are empty cells.
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutionsForkJoin(2, Sudoku.SPACES));
+        assertEquals(1L, configFixture.countSolutionsForkJoin(2, Sudoku.SPACES));
+
+        Sudoku.CountResult result = empty.countSolutionsForkJoin(2, Sudoku.DEFAULT_SPLIT_DEPTH, 100L, null);
+        assertEquals(100L, result.count);
+        assertTrue(result.isLowerBound());
+    }
+
+    @ParameterizedTest(name = "boundedCountAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void boundedCountAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        Sudoku.CountResult result = puzzle.countSolutions(Long.MAX_VALUE, new Sudoku.CancellationToken());
+        assertEquals(expected, result.count);
+        assertTrue(result.exact);
+        result = puzzle.countSolutionsAsync(2, Long.MAX_VALUE, null);
+        assertEquals(expected, result.count);
+        assertTrue(result.exact);
+    }
+
+    @Test
+    void countSolutions_withLimitAndCancellation() throws InterruptedException {
+        Sudoku empty = new Sudoku();
+        assertThrows(IllegalArgumentException.class, () -> empty.countSolutions(0L, null));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.CancellationToken.withTimeout(-1L));
+
+        Sudoku.CountResult result = new Sudoku(invalidPuzzles[0]).countSolutions(10L, null);
+        assertEquals(0L, result.count);
+        assertTrue(result.exact);
+
+        result = puzzleFixture.countSolutions(2L, null);
+        assertEquals(2L, result.count);
+        assertTrue(result.isLowerBound());
+
+        result = empty.countSolutionsAsync(4, 100L, null);
+        assertEquals(100L, result.count);
+        assertTrue(result.isLowerBound());
+
+        // Empty board: only a deadline or cancellation can stop these.
+        long start = System.currentTimeMillis();
+        result = empty.countSolutionsAsync(4, Long.MAX_VALUE, Sudoku.CancellationToken.withTimeout(200L));
+        assertTrue(result.isLowerBound());
+        assertTrue(result.count > 0L);
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+
+        Sudoku.CancellationToken token = new Sudoku.CancellationToken();
+        token.cancel();
+        result = empty.countSolutions(Long.MAX_VALUE, token);
+        assertEquals(0L, result.count);
+        assertTrue(result.isLowerBound());
+
+        // Child tokens stop with their parent or their own deadline, whichever comes first.
+        Sudoku.CancellationToken parent = new Sudoku.CancellationToken();
+        assertThrows(IllegalArgumentException.class, () -> parent.childWithTimeout(-1L));
+        Sudoku.CancellationToken child = parent.childWithTimeout(60_000L);
+        assertTrue(parent.childWithTimeout(0L).isCancelled());
+        assertFalse(child.isCancelled());
+        assertFalse(parent.isCancelled());
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        start = System.currentTimeMillis();
+        assertNull(Sudoku.generatePuzzle(configFixture, 17, null, 0, child, true));
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+
+        AtomicInteger found = new AtomicInteger();
+        start = System.currentTimeMillis();
+        assertFalse(empty.searchForSolutionsAsync(solution -> found.incrementAndGet(), 4, 200L));
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        // Workers must have stopped, rather than running on in the background.
+        Thread.sleep(50L);
+        int foundAfterTimeout = found.get();
+        Thread.sleep(100L);
+        assertEquals(foundAfterTimeout, found.get());
+    }
+
+    @ParameterizedTest(name = "branchingHeuristicsAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void branchingHeuristicsAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        for (Sudoku.CellHeuristic cellHeuristic : Sudoku.CellHeuristic.values()) {
+            for (Sudoku.ValueOrder valueOrder : Sudoku.ValueOrder.values()) {
+                Sudoku.Branching branching = new Sudoku.Branching(cellHeuristic, valueOrder, 42L);
+                assertEquals(expected, puzzle.countSolutions(branching), cellHeuristic + " " + valueOrder);
+                assertSolves(puzzle, expected, puzzle.solution(branching));
+            }
+        }
+    }
+
+    @Test
+    void branchingHeuristics() {
+        // Seeded searches are reproducible.
+        Sudoku empty = new Sudoku();
+        Sudoku.Branching seeded = new Sudoku.Branching(Sudoku.CellHeuristic.RANDOM, Sudoku.ValueOrder.RANDOM, 7L);
+        assertEquals(empty.solution(seeded).toString(), empty.solution(seeded).toString());
+
+        // Copies, which may be searched on other threads, draw from generators of their own.
+        Sudoku seededPuzzle = new Sudoku(puzzleFixture);
+        seededPuzzle.setBranching(seeded);
+        assertNotSame(seededPuzzle.random, new Sudoku(seededPuzzle).random);
+        assertEquals(puzzleSolutions.length, seededPuzzle.countSolutionsAsync(2));
+
+        // Deterministic heuristics fill an empty board the same way every time.
+        Sudoku.Branching first = new Sudoku.Branching(Sudoku.CellHeuristic.FIRST_MIN, Sudoku.ValueOrder.ASCENDING);
+        Sudoku firstSolution = empty.solution(first);
+        assertTrue(firstSolution.isSolved());
+        assertTrue(firstSolution.toString().startsWith("123456789"));
+        assertEquals(firstSolution.toString(), empty.solution(first).toString());
+
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku.Branching(null, Sudoku.ValueOrder.RANDOM));
+    }
+
+    @ParameterizedTest(name = "existsCountUpToAndFirstSolutionAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void existsCountUpToAndFirstSolutionAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        assertEquals(expected > 0L, puzzle.hasSolution());
+        assertEquals(expected == 1L, puzzle.hasUniqueSolution());
+        assertEquals(expected, puzzle.countSolutionsUpTo(Long.MAX_VALUE));
+        assertEquals(Math.min(expected, 100L), puzzle.countSolutionsUpTo(100L));
+        int[] buffer = new int[Sudoku.SPACES];
+        assertEquals(expected > 0L, puzzle.firstSolution(buffer));
+        if (expected > 0L) assertSolves(puzzle, expected, new Sudoku(buffer));
+    }
+
+    @Test
+    void existsCountUpToAndFirstSolution() {
+        Sudoku empty = new Sudoku();
+        assertThrows(IllegalArgumentException.class, () -> empty.countSolutionsUpTo(0L));
+        assertThrows(IllegalArgumentException.class, () -> empty.firstSolution(new int[Sudoku.SPACES - 1]));
+        assertTrue(empty.hasSolution());
+        assertFalse(empty.hasUniqueSolution());
+        assertEquals(3L, empty.countSolutionsUpTo(3L));
+
+        // The buffer is left alone when there is no solution.
+        int[] buffer = new int[Sudoku.SPACES];
+        Arrays.fill(buffer, -1);
+        assertFalse(new Sudoku(invalidPuzzles[0]).firstSolution(buffer));
+        assertFalse(new Sudoku(unsolvablePuzzles[0]).firstSolution(buffer));
+        for (int digit : buffer) assertEquals(-1, digit);
+
+        for (int i = 0; i < 100; i++) {
+            Sudoku puzzle = new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]);
+            assertTrue(puzzle.firstSolution(buffer));
+            assertEquals(puzzle.solution(Sudoku.Engine.BITBOARD).toString(), new Sudoku(buffer).toString());
+        }
+    }
+
+    @Test
+    void candidateKernels_matchScalarKernels() {
+        CandidateKernels kernels = CandidateKernels.get();
+        CandidateKernels scalar = CandidateKernels.SCALAR;
+        boolean vectorEnabled = ModuleLayer.boot().findModule(CandidateKernels.VECTOR_MODULE).isPresent() &&
+            Boolean.parseBoolean(System.getProperty(CandidateKernels.VECTOR_PROPERTY, "true"));
+        assertEquals(vectorEnabled, kernels.isVectorized());
+        int[] expected = new int[Sudoku.SPACES];
+        int[] actual = new int[Sudoku.SPACES];
+
+        List<Sudoku> boards = new ArrayList<>();
+        boards.add(new Sudoku());
+        boards.add(configFixture);
+        for (String p : invalidPuzzles) boards.add(new Sudoku(p));
+        for (String p : unsolvablePuzzles) boards.add(new Sudoku(p));
+        for (int i = 0; i < 100; i++) boards.add(new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]));
+
+        for (Sudoku board : boards) {
+            int[] digits = board.getBoard();
+            board.resetCandidatesAndValidity();
+            scalar.recomputeCandidates(digits, board.constraints, expected);
+            kernels.recomputeCandidates(digits, board.constraints, actual);
+            assertArrayEquals(expected, actual);
+            assertEquals(scalar.minCandidateCount(digits, expected), kernels.minCandidateCount(digits, actual));
+            assertEquals(scalar.isFull(digits), kernels.isFull(digits));
+            assertEquals(scalar.isValid(digits), kernels.isValid(digits));
+            assertEquals(board.isValid(), kernels.isValid(digits));
+        }
+
+        int[] config = configFixture.getBoard();
+        assertTrue(kernels.isFull(config));
+        assertTrue(kernels.isValid(config));
+        config[80] = 0;
+        assertFalse(kernels.isFull(config));
+        assertTrue(kernels.isValid(config));
+        config[80] = config[79];
+        assertFalse(kernels.isValid(config));
+        config[80] = 10;
+        assertFalse(kernels.isValid(config));
+    }
+
+    @ParameterizedTest(name = "transpositionTableAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void transpositionTableAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        // A small table, so that entries are evicted.
+        assertEquals(expected, puzzle.countSolutions(new TranspositionTable(1L << 12)));
+        assertEquals(expected, puzzle.countSolutionsAsync(2, new TranspositionTable(1L << 12)));
+    }
+
+    @Test
+    void transpositionTable_countsMatch() {
+        assertThrows(IllegalArgumentException.class, () -> new TranspositionTable(TranspositionTable.ENTRY_BYTES));
+        assertThrows(IllegalArgumentException.class, () -> new TranspositionTable(1L << 20, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku().countSolutions((TranspositionTable) null));
+
+        // Same filled cells, and the same digits per row, column, and region: same hash.
+        Sudoku a = new Sudoku();
+        a.setDigit(0, 1); a.setDigit(1, 2); a.setDigit(27, 2); a.setDigit(28, 1);
+        Sudoku b = new Sudoku();
+        b.setDigit(0, 2); b.setDigit(1, 1); b.setDigit(27, 1); b.setDigit(28, 2);
+        assertEquals(a.zobristHash(), b.zobristHash());
+        b.setDigit(28, 3);
+        assertNotEquals(a.zobristHash(), b.zobristHash());
+        b.setDigit(28, 0);
+        b.setDigit(28, 2);
+        assertEquals(a.zobristHash(), b.zobristHash());
+        assertEquals(a.zobristHash(), new Sudoku(a).zobristHash());
+        assertEquals(0L, new Sudoku().zobristHash());
+
+        // A small table forces evictions, and may be reused between counts of different puzzles.
+        TranspositionTable table = new TranspositionTable(1L << 12);
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutions(table));
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutions(table));
+        assertTrue(table.hits() > 0L);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1L, new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]).countSolutions(table));
+        }
+    }
+
+    @ParameterizedTest(name = "bandsAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void bandsAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        assertEquals(BigInteger.valueOf(expected), puzzle.countSolutionsByBands());
+        assertEquals(BigInteger.valueOf(expected), puzzle.countSolutionsByBands(2));
+    }
+
+    @Test
+    void countSolutionsByBands() {
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku().countSolutionsByBands(0));
+
+        Sudoku config = Sudoku.generateConfig();
+        assertEquals(BigInteger.ONE, config.countSolutionsByBands());
+
+        // Rotating swaps bands and stacks.
+        BigInteger expected = BigInteger.valueOf(puzzleSolutions.length);
+        assertEquals(expected, puzzleFixture.countSolutionsByBands());
+        assertEquals(expected, new Sudoku(puzzleFixtureStr).rotate(1).countSolutionsByBands());
+
+        // More solutions than fit comfortably in a one-at-a-time count.
+        Sudoku sparse = new Sudoku("000000000000000000020000000000050407008000300001090000300400200050100000000806000");
+        assertEquals(BigInteger.valueOf(4210232L), sparse.countSolutionsByBands());
+        assertEquals(BigInteger.valueOf(4210232L), sparse.countSolutionsByBands(2));
+    }
+
+    @Test
+    void estimateSolutions() {
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku().estimateSolutions(0, 1L));
+
+        Sudoku config = Sudoku.generateConfig();
+        Sudoku.SolutionEstimate solved = config.estimateSolutions(10, 1L);
+        assertEquals(1.0, solved.mean);
+        assertEquals(0.0, solved.variance);
+        assertEquals(10, solved.solutionsReached);
+
+        for (String p : invalidPuzzles) {
+            Sudoku.SolutionEstimate invalid = new Sudoku(p).estimateSolutions(10, 1L);
+            assertEquals(0.0, invalid.mean);
+            assertEquals(0, invalid.solutionsReached);
+        }
+
+        Sudoku puzzle = new Sudoku("12..5..8..7.3.9........7..6...56........4.8......92..1....2...8.6.1.......8......");
+        Sudoku.SolutionEstimate estimate = puzzle.estimateSolutions(2000, 42L);
+        assertTrue(estimate.lower <= 300986.0 && 300986.0 <= estimate.upper, estimate.toString());
+        assertTrue(estimate.lower >= 1.0);
+
+        // Same seed, same estimate, regardless of how probes were scheduled.
+        assertEquals(estimate.mean, puzzle.estimateSolutions(2000, 42L).mean);
+        assertEquals(estimate.variance, puzzle.estimateSolutions(2000, 42L).variance);
+    }
+
+    @ParameterizedTest(name = "restartsAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void restartsAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        // Budgets of a node or so force many restarts; results must stay exact.
+        for (Sudoku.Restarts restarts : new Sudoku.Restarts[] { Sudoku.Restarts.luby(1L), Sudoku.Restarts.geometric(1L, 1.5) }) {
+            assertEquals(expectedFlag(puzzle, expected), puzzle.solutionsFlag(restarts));
+            assertSolves(puzzle, expected, puzzle.solution(restarts));
+        }
+    }
+
+    @Test
+    void restarts() {
+        long[] luby = { 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8 };
+        for (int i = 0; i < luby.length; i++) {
+            assertEquals(luby[i], Sudoku.Restarts.lubyTerm(i + 1));
+            assertEquals(luby[i] * 3L, Sudoku.Restarts.luby(3L).budget(i));
+        }
+        assertEquals(Long.MAX_VALUE, Sudoku.Restarts.NONE.budget(0));
+        assertEquals(400L, Sudoku.Restarts.geometric(100L, 2.0).budget(2));
+        assertEquals(Long.MAX_VALUE, Sudoku.Restarts.geometric(100L, 2.0).budget(100));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.Restarts.luby(0L));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.Restarts.geometric(1L, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.Restarts.parse("sometimes"));
+
+        // A budget of one node forces many restarts, even on an empty board.
+        Sudoku empty = new Sudoku();
+        assertTrue(empty.solution(Sudoku.Restarts.luby(1L)).isSolved());
+        assertEquals(Sudoku.SPACES, empty.numEmptyCells());
+    }
+
+    @ParameterizedTest(name = "portfolioAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void portfolioAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        assertEquals(expectedFlag(puzzle, expected), puzzle.solutionsFlag(Sudoku.Portfolio.DEFAULT));
+        assertSolves(puzzle, expected, puzzle.solution(Sudoku.Portfolio.DEFAULT));
+    }
+
+    @Test
+    void portfolio() {
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku.Portfolio(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new Sudoku.Portfolio.Member(null, Sudoku.Propagation.SINGLES));
+
+        // A portfolio of one is that member's search.
+        Sudoku empty = new Sudoku();
+        Sudoku.Branching first = new Sudoku.Branching(Sudoku.CellHeuristic.FIRST_MIN, Sudoku.ValueOrder.ASCENDING);
+        Sudoku.Portfolio single = new Sudoku.Portfolio(List.of(new Sudoku.Portfolio.Member(first, Sudoku.Propagation.SINGLES)));
+        assertEquals(empty.solution(first).toString(), empty.solution(single).toString());
+        assertTrue(empty.solution(Sudoku.Portfolio.DEFAULT).isSolved());
+
+        for (int i = 0; i < 50; i++) {
+            Sudoku puzzle = new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]);
+            assertArrayEquals(puzzle.solution().getBoard(), puzzle.solution(Sudoku.Portfolio.DEFAULT).getBoard());
+        }
+    }
+
+    @ParameterizedTest(name = "nogoodsAgree(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void nogoodsAgree(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        assertEquals(expected, puzzle.countSolutions(new NogoodStore(NogoodStore.DEFAULT_CAPACITY)));
+        assertEquals(expected, puzzle.countSolutionsAsync(2, new NogoodStore(NogoodStore.DEFAULT_CAPACITY)));
+    }
+
+    @Test
+    void nogoods() {
+        assertThrows(IllegalArgumentException.class, () -> new NogoodStore(0));
+        assertThrows(IllegalArgumentException.class, () -> new NogoodStore(16, 0));
+        assertThrows(IllegalArgumentException.class, () -> configFixture.countSolutions((NogoodStore) null));
+
+        // Again, with what was learned the first time.
+        NogoodStore store = new NogoodStore(NogoodStore.DEFAULT_CAPACITY);
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutions(store));
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutions(store));
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutionsAsync(2, store));
+
+        // A tiny store keeps evicting, and must not affect the count.
+        NogoodStore tiny = new NogoodStore(4);
+        assertEquals(puzzleSolutions.length, puzzleFixture.countSolutions(tiny));
+        assertTrue(tiny.size() <= 4);
+
+        // Branches of the fixture with a few cells removed, sharing one store.
+        Random rand = new Random(16);
+        for (int i = 0; i < 20; i++) {
+            int[] board = configFixture.getBoard();
+            for (int j = 0; j < 4 + i % 4; j++) board[rand.nextInt(Sudoku.SPACES)] = 0;
+            NogoodStore shared = new NogoodStore(NogoodStore.DEFAULT_CAPACITY);
+            assertEquals(new Sudoku(board).allBranchesSolveUniquely(), new Sudoku(board).allBranchesSolveUniquely(shared));
+        }
+    }
+
+    @ParameterizedTest(name = "solutionDiagramAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void solutionDiagramAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        Set<String> solutions = new HashSet<>();
+        puzzle.searchForSolutions3(solution -> {
+            solutions.add(solution.toString());
+            return true;
+        });
+
+        // The same solutions, each once.
+        SolutionDiagram diagram = puzzle.solutionDiagram();
+        assertEquals(expected, diagram.count());
+        Set<String> diagramSolutions = new HashSet<>();
+        diagram.forEachSolution(solution -> {
+            assertSolves(puzzle, expected, solution);
+            diagramSolutions.add(solution.toString());
+            return true;
+        });
+        assertEquals(solutions, diagramSolutions);
+
+        long[][] freq = diagram.digitFrequencies();
+        for (int ci = 0; ci < Sudoku.SPACES; ci++) {
+            assertEquals(expected, Arrays.stream(freq[ci]).sum());
+        }
+        Random rand = new Random(expected);
+        for (int i = 0; i < 10; i++) {
+            Sudoku sample = diagram.sample(rand);
+            if (expected == 0L) assertNull(sample);
+            else assertTrue(solutions.contains(sample.toString()));
+        }
+    }
+
+    @Test
+    void solutionDiagram() {
+        assertThrows(IllegalArgumentException.class, () -> new SolutionDiagram(configFixture, 0));
+
+        // Shares structure; a tree of the solutions would need an edge per solution per empty cell.
+        SolutionDiagram diagram = puzzleFixture.solutionDiagram();
+        assertEquals(puzzleSolutions.length, diagram.count());
+        assertTrue(diagram.numEdges() < (long) puzzleSolutions.length * puzzleFixture.numEmptyCells());
+
+        // Stops when the callback says so.
+        AtomicInteger visited = new AtomicInteger();
+        diagram.forEachSolution(solution -> {
+            return visited.incrementAndGet() < 5;
+        });
+        assertEquals(5, visited.get());
+
+        SolutionDiagram solved = configFixture.solutionDiagram();
+        assertEquals(1L, solved.count());
+        assertEquals(configFixture.toString(), solved.sample(new Random(17)).toString());
+    }
+
+    @ParameterizedTest(name = "backboneMatchesSolutions(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void backboneMatchesSolutions(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        Set<String> solutions = new HashSet<>();
+        puzzle.searchForSolutions3(solution -> {
+            solutions.add(solution.toString());
+            return true;
+        });
+
+        // The backbone is where all solutions agree.
+        for (int numThreads = 1; numThreads <= 2; numThreads++) {
+            Sudoku.Backbone backbone = puzzle.backbone(numThreads);
+            if (expected == 0L) {
+                assertNull(backbone);
+                continue;
+            }
+            String first = solutions.iterator().next();
+            int[] forced = backbone.forced.getBoard();
+            for (int ci = 0; ci < Sudoku.SPACES; ci++) {
+                final int i = ci;
+                boolean agree = solutions.stream().allMatch(s -> s.charAt(i) == first.charAt(i));
+                assertEquals(agree, backbone.mask.testBit(ci));
+                assertEquals(agree ? first.charAt(ci) - '0' : 0, forced[ci]);
+            }
+        }
+    }
+
+    @Test
+    void backbone() {
+        assertThrows(IllegalArgumentException.class, () -> configFixture.backbone(0));
+
+        // Givens are always forced.
+        Sudoku.Backbone backbone = puzzleFixture.backbone(2);
+        SudokuMask givens = puzzleFixture.getMask();
+        for (int ci : givens.toIndices()) {
+            assertTrue(backbone.mask.testBit(ci));
+            assertEquals(puzzleFixture.getDigit(ci), backbone.forced.getDigit(ci));
+        }
+
+        Sudoku.Backbone unique = configFixture.backbone(1);
+        assertEquals(Sudoku.SPACES, unique.mask.bitCount());
+        assertEquals(configFixture.toString(), unique.forced.toString());
+    }
+
+    @ParameterizedTest(name = "solverSessionAgrees(puzzle={0}, solutions={1})")
+    @MethodSource("crossCheckPuzzles")
+    void solverSessionAgrees(String puzzleStr, long expected) {
+        Sudoku puzzle = new Sudoku(puzzleStr);
+        SolverSession session = new SolverSession(puzzle);
+        assertEquals(expected, session.countUpTo(Long.MAX_VALUE));
+        assertEquals(expected == 1L, session.isUnique());
+        assertSolves(puzzle, expected, session.solution());
+    }
+
+    @Test
+    void solverSession() {
+        SolverSession fixtureSession = new SolverSession(configFixture);
+        assertThrows(IllegalStateException.class, () -> fixtureSession.retract());
+        assertThrows(IllegalArgumentException.class, () -> fixtureSession.assume(81, 1));
+        assertThrows(IllegalArgumentException.class, () -> fixtureSession.assume(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> fixtureSession.countUpTo(0L));
+        assertTrue(fixtureSession.isUnique());
+
+        SolverSession session = new SolverSession(puzzleFixture);
+        String start = session.board().toString();
+        assertEquals(puzzleSolutions.length, session.countUpTo(Long.MAX_VALUE));
+
+        // Add clues from one solution until it is the only one, checking against a fresh board.
+        Random rand = new Random(19);
+        Sudoku solution = session.solution();
+        int[] clues = puzzleFixture.getBoard();
+        while (!session.isUnique()) {
+            int ci = rand.nextInt(Sudoku.SPACES);
+            if (clues[ci] > 0) continue;
+            clues[ci] = solution.getBoard()[ci];
+            assertTrue(session.assume(ci, clues[ci]));
+            assertTrue(session.isSatisfiable());
+            assertEquals(new Sudoku(clues).countSolutions(), session.countUpTo(Long.MAX_VALUE));
+        }
+        assertEquals(solution.toString(), session.solution().toString());
+
+        // A conflicting clue, then back to the start.
+        int depth = session.depth();
+        int empty = puzzleFixtureStr.indexOf('.');
+        int other = solution.getBoard()[empty] % 9 + 1;
+        assertFalse(session.assume(empty, other));
+        assertFalse(session.isSatisfiable());
+        assertNull(session.solution());
+        session.retract();
+        assertEquals(depth, session.depth());
+        assertTrue(session.isUnique());
+
+        session.retractAll();
+        assertEquals(0, session.depth());
+        assertEquals(start, session.board().toString());
+        assertEquals(puzzleSolutions.length, session.countUpTo(Long.MAX_VALUE));
+
+        // Assumptions on a board that is already dead stay dead, and can still be retracted.
+        for (String p : unsolvablePuzzles) {
+            SolverSession unsolvable = new SolverSession(new Sudoku(p));
+            assertFalse(unsolvable.isValid());
+            assertFalse(unsolvable.assume(80, 1));
+            unsolvable.retract();
+            assertEquals(0L, unsolvable.countUpTo(10L));
+        }
+    }
+
+    @Test
+    void hasAlternativeSolution() {
+        SudokuMask full = SudokuMask.full();
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.hasAlternativeSolution(new Sudoku(), full));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.hasAlternativeSolution(configFixture, full, 0));
+        assertFalse(Sudoku.hasAlternativeSolution(configFixture, full));
+        assertTrue(Sudoku.hasAlternativeSolution(configFixture, new SudokuMask()));
+
+        Random rand = new Random(20);
+        for (int i = 0; i < 200; i++) {
+            SudokuMask mask = SudokuMask.random(20 + rand.nextInt(20));
+            assertEquals(configFixture.filter(mask).solutionsFlag() != 1, Sudoku.hasAlternativeSolution(configFixture, mask));
+        }
+
+        // Removing one clue at a time from uniquely solving puzzles.
+        for (int i = 0; i < 20; i++) {
+            Sudoku puzzle = new Sudoku(GeneratedPuzzles.PUZZLES_24_1000[i]);
+            Sudoku grid = puzzle.solution();
+            SudokuMask mask = puzzle.getMask();
+            for (int ci : mask.toIndices()) {
+                mask.unsetBit(ci);
+                boolean expected = grid.filter(mask).solutionsFlag() != 1;
+                assertEquals(expected, Sudoku.hasAlternativeSolution(grid, mask, ci));
+                assertEquals(expected, Sudoku.hasAlternativeSolution(grid, mask));
+                mask.setBit(ci);
+            }
+        }
+    }
+
+    @Test
+    void maskMemo() {
+        assertThrows(IllegalArgumentException.class, () -> new MaskMemo(0));
+
+        MaskMemo memo = new MaskMemo(4);
+        SudokuMask unique = SudokuMask.full().unsetBit(0).unsetBit(40);
+        SudokuMask notUnique = new SudokuMask().setBit(3).setBit(50).setBit(80);
+        assertEquals(MaskMemo.UNKNOWN, memo.get(unique));
+        memo.put(unique, true);
+        memo.put(notUnique, false);
+        assertEquals(2, memo.size());
+        assertEquals(MaskMemo.UNIQUE, memo.get(unique));
+        assertEquals(MaskMemo.NOT_UNIQUE, memo.get(notUnique));
+
+        // Supersets of unique masks; non-unique masks only match exactly.
+        assertEquals(MaskMemo.UNIQUE, memo.get(new SudokuMask(unique).setBit(40)));
+        assertEquals(MaskMemo.UNKNOWN, memo.get(new SudokuMask(notUnique).unsetBit(50)));
+        assertEquals(MaskMemo.UNKNOWN, memo.get(new SudokuMask(unique).unsetBit(1)));
+        assertEquals(MaskMemo.UNKNOWN, memo.get(new SudokuMask(notUnique).setBit(4)));
+
+        // Cleared once full.
+        memo.put(unique, true);
+        memo.put(new SudokuMask().setBit(1), false);
+        memo.put(new SudokuMask().setBit(2), false);
+        assertEquals(4, memo.size());
+        memo.put(new SudokuMask().setBit(7), false);
+        assertEquals(1, memo.size());
+        assertEquals(MaskMemo.UNKNOWN, memo.get(unique));
+    }
+
+    @Test
+    void racePuzzles() {
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.racePuzzles(configFixture, 24, 0, 2, 0, 0L));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.racePuzzles(configFixture, 24, 1, 0, 0, 0L));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.racePuzzles(configFixture, 24, 1, 2, 5, 0L));
+        assertThrows(IllegalArgumentException.class, () -> Sudoku.racePuzzles(new Sudoku(), 24, 1, 2, 0, 0L));
+        assertTrue(Sudoku.racePuzzles(configFixture, Sudoku.MIN_CLUES - 1, 1, 2, 0, 0L).isEmpty());
+
+        // Finite limits throughout, so a stuck race fails instead of hanging the suite.
+        List<Sudoku> puzzles = assertTimeoutPreemptively(
+            Duration.ofSeconds(30),
+            () -> Sudoku.racePuzzles(configFixture, 26, 5, 3, 0, 20_000L)
+        );
+        assertEquals(5, puzzles.size());
+        Set<String> distinct = new HashSet<>();
+        for (Sudoku puzzle : puzzles) {
+            assertEquals(26, puzzle.numClues());
+            assertEquals(1, puzzle.solutionsFlag());
+            assertEquals(configFixture.toString(), puzzle.solution().toString());
+            assertTrue(distinct.add(puzzle.toString()));
+        }
+
+        Sudoku puzzle = assertTimeoutPreemptively(
+            Duration.ofSeconds(30),
+            () -> Sudoku.racePuzzle(configFixture, 24, 2, 0, 20_000L)
+        );
+        assertNotNull(puzzle);
+        assertEquals(1, puzzle.solutionsFlag());
+        assertEquals(configFixture.toString(), puzzle.solution().toString());
+    }
+
     // @Test
     void sieveFindsAllExpectedMasks() {
         populateSieveForAllDigitCombos(3);
@@ -222,6 +222,50 @@ public class TestSudokuSieve {
         }
     }
 
+    @Test
+    void addFromSolution() {
+        int[] witness = new int[Sudoku.SPACES];
+        for (int i = 0; i < 50; i++) {
+            SudokuMask mask = SudokuMask.random(18 + i % 10);
+            if (!Sudoku.hasAlternativeSolution(configFixture, mask, witness)) continue;
+
+            SudokuSieve sieve = new SudokuSieve(configFixture);
+            assertTrue(sieve.addFromSolution(witness));
+            assertFalse(sieve.addFromSolution(witness));
+            assertFalse(sieve.doesMaskSatisfy(mask));
+
+            // A minimal unavoidable set, within the cells where the solutions differed.
+            SudokuMask item = sieve.first();
+            SudokuMask diff = configFixture.diff2(witness);
+            assertTrue(diff.hasBitsSet(item));
+            assertTrue(Sudoku.hasAlternativeSolution(configFixture, new SudokuMask(item).flip()));
+            for (int ci : item.toIndices()) {
+                assertFalse(Sudoku.hasAlternativeSolution(configFixture, new SudokuMask(item).flip().setBit(ci)));
+            }
+        }
+    }
+
+    @Test
+    void seedInBackground() throws InterruptedException {
+        assertThrows(IllegalArgumentException.class, () -> sieve.seedInBackground(1));
+        assertThrows(IllegalArgumentException.class, () -> sieve.seedInBackground(5));
+
+        assertTrue(sieve.seedInBackground(2));
+        assertFalse(sieve.seedInBackground(2));
+        while (sieve.isSeeding()) {
+            Thread.sleep(10L);
+        }
+        assertTrue(sieve.size() > 0);
+        for (SudokuMask item : sieve.items(new ArrayList<>())) {
+            assertTrue(sieve.validate(item));
+        }
+
+        assertTrue(sieve.seedInBackground(3));
+        sieve.cancelSeeding();
+        assertFalse(sieve.isSeeding());
+        assertFalse(sieve.seedInBackground(3));
+    }
+
     private void populateSieveForAllDigitCombos(int level) {
         for (int r = Sudoku.DIGIT_COMBOS_MAP[level].length - 1; r >= 0; r--) {
             SudokuMask pMask = configFixture.maskForDigits(Sudoku.DIGIT_COMBOS_MAP[level][r]);